@@ -0,0 +1,13 @@
+package nl.recognize.msauthplugin;
+
+/**
+ * An account as far as the token flows need to know it. Implementations wrap the account of the authentication library.
+ */
+public interface Account {
+    String getId();
+
+    /**
+     * The username, which is passed as login hint so the prompt doesn't ask for another account.
+     */
+    String getUsername();
+}
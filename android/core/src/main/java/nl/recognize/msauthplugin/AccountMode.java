@@ -0,0 +1,6 @@
+package nl.recognize.msauthplugin;
+
+public enum AccountMode {
+    SINGLE,
+    MULTIPLE
+}
@@ -0,0 +1,18 @@
+package nl.recognize.msauthplugin;
+
+/**
+ * Prepares the browser used for interactive logins while the plugin is still deciding whether it needs one, so the
+ * login page shows up sooner once the prompt starts. Warming up is only a hint; implementations do nothing when no
+ * suitable browser is available.
+ */
+public interface BrowserWarmup {
+    /**
+     * Starts the browser and lets it fetch the url ahead of time. Calling it again while warm only updates the url.
+     */
+    void warmUp(String url);
+
+    /**
+     * Releases the browser, e.g. when the plugin is destroyed.
+     */
+    void release();
+}
@@ -0,0 +1,98 @@
+package nl.recognize.msauthplugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Fails fast for a key (an authority) after several consecutive transient failures. Once the open period has passed a
+ * single trial request is let through; its outcome closes the circuit again or reopens it.
+ */
+public class CircuitBreaker {
+
+    private static final class State {
+
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean trialInFlight;
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final ConcurrentMap<String, State> states = new ConcurrentHashMap<>();
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public boolean allowRequest(String key, long now) {
+        State state = states.get(key);
+        if (state == null) {
+            return true;
+        }
+
+        synchronized (state) {
+            if (state.consecutiveFailures < failureThreshold) {
+                return true;
+            }
+
+            if (now < state.openUntil || state.trialInFlight) {
+                return false;
+            }
+
+            state.trialInFlight = true;
+
+            return true;
+        }
+    }
+
+    public void recordSuccess(String key) {
+        State state = states.get(key);
+        if (state == null) {
+            return;
+        }
+
+        synchronized (state) {
+            state.consecutiveFailures = 0;
+            state.trialInFlight = false;
+        }
+    }
+
+    /**
+     * Lets another trial through when the current one ended without an outcome, e.g. because it was interrupted. The
+     * circuit stays open.
+     */
+    public void releaseTrial(String key) {
+        State state = states.get(key);
+        if (state == null) {
+            return;
+        }
+
+        synchronized (state) {
+            state.trialInFlight = false;
+        }
+    }
+
+    public void recordFailure(String key, long now) {
+        State state = ConcurrentMaps.getOrCreate(states, key, State::new);
+
+        synchronized (state) {
+            state.consecutiveFailures++;
+            state.trialInFlight = false;
+            if (state.consecutiveFailures >= failureThreshold) {
+                state.openUntil = now + openMillis;
+            }
+        }
+    }
+
+    public boolean isOpen(String key, long now) {
+        State state = states.get(key);
+        if (state == null) {
+            return false;
+        }
+
+        synchronized (state) {
+            return state.consecutiveFailures >= failureThreshold && now < state.openUntil;
+        }
+    }
+}
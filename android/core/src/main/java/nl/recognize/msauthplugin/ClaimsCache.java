@@ -0,0 +1,201 @@
+package nl.recognize.msauthplugin;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Decodes JWT payloads and keeps the parsed claims of the most recently used tokens, so a token is only decoded once.
+ * Entries are keyed by a hash of the token, so the cache doesn't hold on to the tokens themselves. The same token
+ * instance is usually looked up again and again, so entries weakly remember it to skip hashing it on every lookup.
+ */
+public class ClaimsCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    private static class Entry {
+
+        private final String key;
+        private final String accountId;
+        private final WeakReference<String> token;
+        private final JSONObject claims;
+
+        private Entry(String key, String accountId, String token, JSONObject claims) {
+            this.key = key;
+            this.accountId = accountId;
+            this.token = new WeakReference<>(token);
+            this.claims = claims;
+        }
+    }
+
+    private final Map<String, Entry> claims;
+    private long hits;
+    private long misses;
+
+    public ClaimsCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public ClaimsCache(final int maxEntries) {
+        this.claims = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the claims of the token. Tokens that aren't a JWT with a JSON payload have no claims.
+     */
+    public JSONObject getClaims(String accountId, String token) {
+        if (token == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            Entry entry = findByIdentity(token);
+            if (entry != null) {
+                // Marks the entry as recently used
+                claims.get(entry.key);
+                hits++;
+                return entry.claims;
+            }
+        }
+
+        // An equal token from another instance, e.g. one restored from storage, is found by its hash instead
+        String key = createKey(token);
+        synchronized (this) {
+            Entry entry = claims.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.claims;
+            }
+
+            misses++;
+        }
+
+        JSONObject decodedClaims = decode(token);
+        if (decodedClaims == null) {
+            decodedClaims = new JSONObject();
+        }
+
+        synchronized (this) {
+            claims.put(key, new Entry(key, accountId, token, decodedClaims));
+        }
+
+        return decodedClaims;
+    }
+
+    String createKey(String token) {
+        return Hashing.sha256Hex(token);
+    }
+
+    private Entry findByIdentity(String token) {
+        for (Entry entry : claims.values()) {
+            if (entry.token.get() == token) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes the claims of the account's tokens, e.g. when it signs out.
+     */
+    public synchronized void removeAccount(String accountId) {
+        Iterator<Entry> iterator = claims.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (accountId == null ? entry.accountId == null : accountId.equals(entry.accountId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return claims.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    static JSONObject decode(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length < 2) {
+            return null;
+        }
+
+        byte[] payload = decodeBase64Url(parts[1]);
+        if (payload == null) {
+            return null;
+        }
+
+        try {
+            return new JSONObject(new String(payload, StandardCharsets.UTF_8));
+        } catch (JSONException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes unpadded base64url, as used by JWTs. Implemented here since java.util.Base64 needs API level 26 and
+     * android.util.Base64 isn't available on the JVM.
+     */
+    static byte[] decodeBase64Url(String value) {
+        int length = value.length();
+        while (length > 0 && value.charAt(length - 1) == '=') {
+            length--;
+        }
+
+        if (length % 4 == 1) {
+            return null;
+        }
+
+        byte[] output = new byte[length * 3 / 4];
+        int buffer = 0;
+        int bits = 0;
+        int outputIndex = 0;
+        for (int i = 0; i < length; i++) {
+            int sextet = decodeBase64UrlCharacter(value.charAt(i));
+            if (sextet < 0) {
+                return null;
+            }
+
+            buffer = (buffer << 6) | sextet;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                output[outputIndex++] = (byte) (buffer >> bits);
+            }
+        }
+
+        return output;
+    }
+
+    private static int decodeBase64UrlCharacter(char character) {
+        if (character >= 'A' && character <= 'Z') {
+            return character - 'A';
+        } else if (character >= 'a' && character <= 'z') {
+            return character - 'a' + 26;
+        } else if (character >= '0' && character <= '9') {
+            return character - '0' + 52;
+        } else if (character == '-' || character == '+') {
+            return 62;
+        } else if (character == '_' || character == '/') {
+            return 63;
+        }
+
+        return -1;
+    }
+}
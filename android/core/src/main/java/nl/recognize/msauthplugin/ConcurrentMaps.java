@@ -0,0 +1,28 @@
+package nl.recognize.msauthplugin;
+
+import java.util.concurrent.ConcurrentMap;
+
+public final class ConcurrentMaps {
+
+    public interface Factory<V> {
+        V create();
+    }
+
+    private ConcurrentMaps() {}
+
+    /**
+     * Returns the value of the key, creating it when there is none. Racing callers may each create a value, but all of
+     * them get the one that was stored first. Stands in for Map.computeIfAbsent, which needs API level 24.
+     */
+    public static <K, V> V getOrCreate(ConcurrentMap<K, V> map, K key, Factory<V> factory) {
+        V value = map.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        V newValue = factory.create();
+        value = map.putIfAbsent(key, newValue);
+
+        return value != null ? value : newValue;
+    }
+}
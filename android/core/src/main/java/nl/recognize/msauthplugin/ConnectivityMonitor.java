@@ -0,0 +1,17 @@
+package nl.recognize.msauthplugin;
+
+/**
+ * Tells whether the device can currently reach the network, so requests that would only wait for network timeouts can
+ * be answered right away.
+ */
+public interface ConnectivityMonitor {
+    interface Listener {
+        void connectivityChanged(boolean connected);
+    }
+
+    boolean isConnected();
+
+    void start(Listener listener);
+
+    void stop();
+}
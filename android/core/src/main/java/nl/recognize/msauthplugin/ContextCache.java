@@ -0,0 +1,78 @@
+package nl.recognize.msauthplugin;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ContextCache<T> {
+
+    public interface Factory<T> {
+        T create() throws Exception;
+    }
+
+    private final Map<String, T> contexts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public T getOrCreate(String fingerprint, Factory<T> factory) throws Exception {
+        T context = contexts.get(fingerprint);
+        if (context != null) {
+            hits.incrementAndGet();
+            return context;
+        }
+
+        // Creating an MSAL application is expensive, so concurrent callers for the same configuration wait for a single
+        // creation while different configurations can be created in parallel
+        Object lock = ConcurrentMaps.getOrCreate(locks, fingerprint, Object::new);
+        synchronized (lock) {
+            context = contexts.get(fingerprint);
+            if (context != null) {
+                hits.incrementAndGet();
+                return context;
+            }
+
+            misses.incrementAndGet();
+            try {
+                context = factory.create();
+            } finally {
+                if (context == null) {
+                    // Nothing was cached, so the lock has nothing left to guard either
+                    locks.remove(fingerprint, lock);
+                }
+            }
+            if (context != null) {
+                contexts.put(fingerprint, context);
+            }
+
+            return context;
+        }
+    }
+
+    public T get(String fingerprint) {
+        return contexts.get(fingerprint);
+    }
+
+    public void invalidate(String fingerprint) {
+        contexts.remove(fingerprint);
+        locks.remove(fingerprint);
+    }
+
+    public void clear() {
+        contexts.clear();
+        locks.clear();
+    }
+
+    public int size() {
+        return contexts.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
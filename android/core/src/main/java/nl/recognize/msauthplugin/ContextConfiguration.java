@@ -0,0 +1,98 @@
+package nl.recognize.msauthplugin;
+
+public class ContextConfiguration {
+
+    private final String clientId;
+    private final String domainHint;
+    private final String tenant;
+    private final AuthorityType authorityType;
+    private final String authorityUrl;
+    private final String keyHash;
+    private final boolean brokerRedirectUriRegistered;
+    private final AccountMode accountMode;
+    private final String fingerprint;
+
+    public ContextConfiguration(
+        String clientId,
+        String domainHint,
+        String tenant,
+        AuthorityType authorityType,
+        String authorityUrl,
+        String keyHash,
+        boolean brokerRedirectUriRegistered,
+        AccountMode accountMode
+    ) {
+        this.clientId = clientId;
+        this.domainHint = domainHint;
+        this.tenant = tenant;
+        this.authorityType = authorityType;
+        this.authorityUrl = authorityUrl;
+        this.keyHash = keyHash;
+        this.brokerRedirectUriRegistered = brokerRedirectUriRegistered;
+        this.accountMode = accountMode;
+
+        StringBuilder fingerprint = new StringBuilder();
+        appendField(fingerprint, clientId);
+        appendField(fingerprint, tenant);
+        appendField(fingerprint, authorityType.name());
+        appendField(fingerprint, authorityUrl);
+        appendField(fingerprint, keyHash);
+        appendField(fingerprint, domainHint);
+        appendField(fingerprint, String.valueOf(brokerRedirectUriRegistered));
+        appendField(fingerprint, accountMode.name());
+        this.fingerprint = fingerprint.toString();
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getDomainHint() {
+        return domainHint;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public AuthorityType getAuthorityType() {
+        return authorityType;
+    }
+
+    public String getAuthorityUrl() {
+        return authorityUrl;
+    }
+
+    public String getKeyHash() {
+        return keyHash;
+    }
+
+    public boolean isBrokerRedirectUriRegistered() {
+        return brokerRedirectUriRegistered;
+    }
+
+    public AccountMode getAccountMode() {
+        return accountMode;
+    }
+
+    /**
+     * Identifies the MSAL application that would be built from this configuration. Two configurations with the same
+     * fingerprint can share a single public client application instance.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Fields are prefixed with their length, so neither a separator inside a value nor the text "null" can be taken
+     * for another configuration.
+     */
+    private static void appendField(StringBuilder fingerprint, String value) {
+        if (value == null) {
+            fingerprint.append('-');
+        } else {
+            fingerprint.append(value.length()).append(':').append(value);
+        }
+        fingerprint.append('|');
+    }
+}
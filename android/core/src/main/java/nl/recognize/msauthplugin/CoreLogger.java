@@ -0,0 +1,80 @@
+package nl.recognize.msauthplugin;
+
+/**
+ * Logger for the plugin and its platform independent classes. Every plugin instance creates its own logger around its
+ * diagnostic log and hands it to the classes it creates, so instances don't log into each other's buffer. A logger
+ * without a sink drops every message.
+ */
+public final class CoreLogger {
+
+    public static final String SOURCE_PLUGIN = "plugin";
+
+    public enum Level {
+        DEBUG("debug"),
+        INFO("info"),
+        WARN("warn"),
+        ERROR("error"),
+        NONE("none");
+
+        private final String key;
+
+        Level(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public static Level fromKey(String key) {
+            for (Level level : values()) {
+                if (level.key.equals(key)) {
+                    return level;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    public interface Sink {
+        /**
+         * Whether a message at this level would be kept, so callers can skip building messages that would be dropped.
+         */
+        boolean isLoggable(Level level);
+
+        void log(Level level, String source, String message, Throwable throwable);
+    }
+
+    private final Sink sink;
+
+    public CoreLogger(Sink sink) {
+        this.sink = sink;
+    }
+
+    public boolean isLoggable(Level level) {
+        return sink != null && sink.isLoggable(level);
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, SOURCE_PLUGIN, message, null);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, SOURCE_PLUGIN, message, null);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, SOURCE_PLUGIN, message, null);
+    }
+
+    public void error(String message, Throwable throwable) {
+        log(Level.ERROR, SOURCE_PLUGIN, message, throwable);
+    }
+
+    public void log(Level level, String source, String message, Throwable throwable) {
+        if (sink != null && sink.isLoggable(level)) {
+            sink.log(level, source, message, throwable);
+        }
+    }
+}
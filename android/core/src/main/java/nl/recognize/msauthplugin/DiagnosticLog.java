@@ -0,0 +1,224 @@
+package nl.recognize.msauthplugin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most recent log messages in a fixed size ring buffer, so they can be pulled on demand. Only messages at or
+ * above the configured level are passed on to the platform log, and a message that repeats is passed on at most once
+ * per sample interval. Messages below the info level are only kept when the level asks for them.
+ */
+public class DiagnosticLog implements CoreLogger.Sink {
+
+    public static final int DEFAULT_CAPACITY = 200;
+    public static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 10000;
+    private static final int MAX_SAMPLED_MESSAGES = 64;
+
+    public static final class Entry {
+
+        private final long timestamp;
+        private final CoreLogger.Level level;
+        private final String source;
+        private final String message;
+        private final String error;
+        private volatile long lastTimestamp;
+        private volatile int count = 1;
+
+        private Entry(long timestamp, CoreLogger.Level level, String source, String message, String error) {
+            this.timestamp = timestamp;
+            this.lastTimestamp = timestamp;
+            this.level = level;
+            this.source = source;
+            this.message = message;
+            this.error = error;
+        }
+
+        private boolean isRepeatedBy(CoreLogger.Level level, String source, String message, String error) {
+            return this.level == level && equals(this.source, source) && equals(this.message, message) && equals(this.error, error);
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getLastTimestamp() {
+            return lastTimestamp;
+        }
+
+        public CoreLogger.Level getLevel() {
+            return level;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * The type and message of the exception that was logged, without its stack trace.
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * How often the message was logged in a row.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static class Sample {
+
+        private long forwardedAt;
+        private int suppressed;
+    }
+
+    private final CoreLogger.Sink platformSink;
+    private final long sampleIntervalMillis;
+    private final Entry[] entries;
+    private int head;
+    private int size;
+    private long dropped;
+    private final Map<String, Sample> samples = new LinkedHashMap<String, Sample>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Sample> eldest) {
+            return size() > MAX_SAMPLED_MESSAGES;
+        }
+    };
+    private volatile CoreLogger.Level level = CoreLogger.Level.WARN;
+
+    public DiagnosticLog(CoreLogger.Sink platformSink) {
+        this(platformSink, DEFAULT_CAPACITY, DEFAULT_SAMPLE_INTERVAL_MILLIS);
+    }
+
+    public DiagnosticLog(CoreLogger.Sink platformSink, int capacity, long sampleIntervalMillis) {
+        this.platformSink = platformSink;
+        this.entries = new Entry[capacity];
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    public CoreLogger.Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the level from which messages are passed on to the platform log. The buffer keeps info messages and up
+     * regardless, and debug messages only when this is the debug level.
+     */
+    public void setLevel(CoreLogger.Level level) {
+        this.level = level;
+    }
+
+    @Override
+    public boolean isLoggable(CoreLogger.Level level) {
+        return level.compareTo(CoreLogger.Level.INFO) >= 0 || level.compareTo(this.level) >= 0;
+    }
+
+    @Override
+    public void log(CoreLogger.Level level, String source, String message, Throwable throwable) {
+        log(System.currentTimeMillis(), level, source, message, throwable);
+    }
+
+    public void log(long now, CoreLogger.Level level, String source, String message, Throwable throwable) {
+        if (!isLoggable(level)) {
+            return;
+        }
+
+        String forwardedMessage;
+        synchronized (this) {
+            record(now, level, source, message, throwable == null ? null : throwable.toString());
+            forwardedMessage = level.compareTo(this.level) >= 0 ? sample(now, level, source, message) : null;
+        }
+
+        // Outside the lock, platform logging can be slow
+        if (forwardedMessage != null) {
+            platformSink.log(level, source, forwardedMessage, throwable);
+        }
+    }
+
+    /**
+     * The buffered entries, oldest first.
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(entries[(head - size + i + entries.length) % entries.length]);
+        }
+
+        return result;
+    }
+
+    /**
+     * The number of entries that were pushed out of the buffer by newer ones.
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = null;
+        }
+        head = 0;
+        size = 0;
+        dropped = 0;
+        samples.clear();
+    }
+
+    private void record(long now, CoreLogger.Level level, String source, String message, String error) {
+        if (size > 0) {
+            Entry newest = entries[(head - 1 + entries.length) % entries.length];
+            if (newest.isRepeatedBy(level, source, message, error)) {
+                newest.count++;
+                newest.lastTimestamp = now;
+                return;
+            }
+        }
+
+        if (size == entries.length) {
+            dropped++;
+        } else {
+            size++;
+        }
+        entries[head] = new Entry(now, level, source, message, error);
+        head = (head + 1) % entries.length;
+    }
+
+    /**
+     * Returns the message to pass on to the platform log, or null when the same message was passed on less than a
+     * sample interval ago.
+     */
+    private String sample(long now, CoreLogger.Level level, String source, String message) {
+        String key = level.getKey() + "|" + source + "|" + message;
+        Sample sample = samples.get(key);
+        if (sample == null) {
+            sample = new Sample();
+            sample.forwardedAt = now;
+            samples.put(key, sample);
+
+            return message;
+        }
+
+        if (now - sample.forwardedAt < sampleIntervalMillis) {
+            sample.suppressed++;
+            return null;
+        }
+
+        int suppressed = sample.suppressed;
+        sample.forwardedAt = now;
+        sample.suppressed = 0;
+
+        return suppressed == 0 ? message : message + " (repeated " + suppressed + " more times)";
+    }
+}
@@ -0,0 +1,28 @@
+package nl.recognize.msauthplugin;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public final class Hashing {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Hashing() {}
+
+    public static String sha256Hex(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+
+            return new String(hex);
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java and Android runtime is required to support SHA-256
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+}
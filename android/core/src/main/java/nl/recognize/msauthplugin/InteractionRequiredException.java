@@ -0,0 +1,13 @@
+package nl.recognize.msauthplugin;
+
+/**
+ * Thrown when a token can't be acquired silently and the user has to sign in again or give consent.
+ */
+public class InteractionRequiredException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public InteractionRequiredException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,12 @@
+package nl.recognize.msauthplugin;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.SecretKey;
+
+/**
+ * Supplies the AES key used to encrypt persisted token snapshots. The key is created on first use and must stay the
+ * same across process restarts.
+ */
+public interface KeyProvider {
+    SecretKey getOrCreateKey() throws GeneralSecurityException;
+}
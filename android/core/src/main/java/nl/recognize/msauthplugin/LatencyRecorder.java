@@ -0,0 +1,125 @@
+package nl.recognize.msauthplugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency recorder with a fixed log-scale histogram. Recording never allocates, percentiles are accurate to
+ * the bucket width (25%).
+ */
+public class LatencyRecorder {
+
+    private static final long MIN_BOUND_MICROS = 100;
+    private static final long MAX_BOUND_MICROS = 600_000_000L;
+    private static final double BUCKET_GROWTH = 1.25;
+    private static final long[] BUCKET_BOUNDS_MICROS = createBucketBounds();
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+
+    public void record(long durationNanos, boolean error) {
+        long micros = Math.max(0, durationNanos / 1000);
+
+        count.incrementAndGet();
+        if (error) {
+            errors.incrementAndGet();
+        }
+        totalMicros.addAndGet(micros);
+        buckets.incrementAndGet(bucketIndex(micros));
+
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public double getMeanMillis() {
+        long total = count.get();
+
+        return total == 0 ? 0 : totalMicros.get() / 1000.0 / total;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * Returns the upper bound of the bucket that contains the given percentile (0-100), capped at the maximum
+     * recorded latency.
+     */
+    public double getPercentileMillis(double percentile) {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            total += buckets.get(i);
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= Math.max(1, rank)) {
+                long bound = i < BUCKET_BOUNDS_MICROS.length ? BUCKET_BOUNDS_MICROS[i] : Long.MAX_VALUE;
+
+                return Math.min(bound, maxMicros.get()) / 1000.0;
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+    public void reset() {
+        count.set(0);
+        errors.set(0);
+        totalMicros.set(0);
+        maxMicros.set(0);
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    private static int bucketIndex(long micros) {
+        int low = 0;
+        int high = BUCKET_BOUNDS_MICROS.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (BUCKET_BOUNDS_MICROS[middle] < micros) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private static long[] createBucketBounds() {
+        int size = 0;
+        for (double bound = MIN_BOUND_MICROS; bound < MAX_BOUND_MICROS; bound *= BUCKET_GROWTH) {
+            size++;
+        }
+
+        long[] bounds = new long[size];
+        double bound = MIN_BOUND_MICROS;
+        for (int i = 0; i < size; i++) {
+            bounds[i] = (long) bound;
+            bound *= BUCKET_GROWTH;
+        }
+
+        return bounds;
+    }
+}
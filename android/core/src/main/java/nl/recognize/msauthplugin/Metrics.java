@@ -0,0 +1,84 @@
+package nl.recognize.msauthplugin;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Metrics {
+
+    public enum Phase {
+        CONFIG_BUILD("configBuild"),
+        CONFIG_WRITE("configWrite"),
+        CONTEXT_CREATE("contextCreate"),
+        CURRENT_ACCOUNT("currentAccount"),
+        SILENT("silent"),
+        INTERACTIVE("interactive"),
+        SIGN_OUT("signOut");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    public enum Counter {
+        RETRY("retries"),
+        CIRCUIT_OPEN("circuitOpen"),
+        OFFLINE("offline");
+
+        private final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private final Map<Phase, LatencyRecorder> recorders = new EnumMap<>(Phase.class);
+    private final Map<Counter, AtomicLong> counters = new EnumMap<>(Counter.class);
+
+    public Metrics() {
+        for (Phase phase : Phase.values()) {
+            recorders.put(phase, new LatencyRecorder());
+        }
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new AtomicLong());
+        }
+    }
+
+    /**
+     * Records the time passed since the given {@link System#nanoTime()} value for the phase.
+     */
+    public void record(Phase phase, long startNanos, boolean error) {
+        recorders.get(phase).record(System.nanoTime() - startNanos, error);
+    }
+
+    public LatencyRecorder get(Phase phase) {
+        return recorders.get(phase);
+    }
+
+    public void increment(Counter counter) {
+        counters.get(counter).incrementAndGet();
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter).get();
+    }
+
+    public void reset() {
+        for (LatencyRecorder recorder : recorders.values()) {
+            recorder.reset();
+        }
+        for (AtomicLong counter : counters.values()) {
+            counter.set(0);
+        }
+    }
+}
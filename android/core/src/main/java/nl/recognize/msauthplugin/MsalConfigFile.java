@@ -0,0 +1,120 @@
+package nl.recognize.msauthplugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds the MSAL configuration for a {@link ContextConfiguration} and writes it to the file MSAL reads it from.
+ */
+public final class MsalConfigFile {
+
+    private static final String FILE_PREFIX = "auth_config_";
+    private static final String FILE_SUFFIX = ".json";
+    // MSAL only reads a config file while it creates the application, well within this period
+    private static final long STALE_AFTER_MILLIS = 60_000;
+
+    private MsalConfigFile() {}
+
+    public static JSONObject build(ContextConfiguration configuration, String packageName) throws IOException, JSONException {
+        String tenant = configuration.getTenant();
+        String customAuthorityUrl = configuration.getAuthorityUrl();
+        AuthorityType authorityType = configuration.getAuthorityType();
+        String keyHash = configuration.getKeyHash();
+
+        String tenantId = (tenant != null ? tenant : "common");
+        String authorityUrl = customAuthorityUrl != null ? customAuthorityUrl : "https://login.microsoftonline.com/" + tenantId;
+        String urlEncodedKeyHash = URLEncoder.encode(keyHash, "UTF-8");
+        String redirectUri = "msauth://" + packageName + "/" + urlEncodedKeyHash;
+
+        JSONObject configFile = new JSONObject();
+        JSONObject authorityConfig = new JSONObject();
+
+        switch (authorityType) {
+            case AAD:
+                authorityConfig.put("type", AuthorityType.AAD.name());
+                authorityConfig.put("authority_url", authorityUrl);
+                authorityConfig.put("audience", (new JSONObject()).put("type", "AzureADMultipleOrgs").put("tenant_id", tenantId));
+                configFile.put("broker_redirect_uri_registered", configuration.isBrokerRedirectUriRegistered());
+                break;
+            case B2C:
+                authorityConfig.put("type", AuthorityType.B2C.name());
+                authorityConfig.put("authority_url", authorityUrl);
+                authorityConfig.put("default", "true");
+                break;
+            case CIAM:
+                authorityConfig.put("type", AuthorityType.CIAM.name()).put("authority_url", authorityUrl);
+                break;
+        }
+
+        configFile.put("client_id", configuration.getClientId());
+        configFile.put("domain_hint", configuration.getDomainHint());
+        configFile.put("authorization_user_agent", "DEFAULT");
+        configFile.put("redirect_uri", redirectUri);
+        configFile.put("account_mode", configuration.getAccountMode().name());
+        configFile.put("authorities", (new JSONArray()).put(authorityConfig));
+
+        return configFile;
+    }
+
+    public static File write(File directory, JSONObject data) throws IOException {
+        String contents = data.toString();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create config directory.");
+        }
+
+        // Config files are named after their contents, so a file that exists is complete and never changes afterwards.
+        // This lets concurrent calls share it without locking and avoids rewriting it on every call.
+        File config = new File(directory, FILE_PREFIX + Hashing.sha256Hex(contents) + FILE_SUFFIX);
+        if (config.isFile()) {
+            // Marks the file as in use, so writing another configuration meanwhile doesn't delete it
+            config.setLastModified(System.currentTimeMillis());
+            return config;
+        }
+
+        File temporary = File.createTempFile(FILE_PREFIX, ".tmp", directory);
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+                writer.write(contents);
+            }
+
+            if (!temporary.renameTo(config) && !config.isFile()) {
+                throw new IOException("Unable to write config file.");
+            }
+        } finally {
+            if (temporary.exists() && !temporary.delete()) {
+                temporary.deleteOnExit();
+            }
+        }
+
+        deleteStaleFiles(directory, config);
+
+        return config;
+    }
+
+    /**
+     * Every configuration that was ever used would otherwise leave its file behind. Files used within the stale period
+     * may still be read by MSAL for another configuration, so those are kept; a deleted one is written again when its
+     * configuration is used next.
+     */
+    private static void deleteStaleFiles(File directory, File config) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+
+        long staleBefore = System.currentTimeMillis() - STALE_AFTER_MILLIS;
+        for (File file : files) {
+            if (!file.equals(config) && file.lastModified() < staleBefore && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
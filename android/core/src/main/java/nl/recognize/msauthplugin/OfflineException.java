@@ -0,0 +1,10 @@
+package nl.recognize.msauthplugin;
+
+public class OfflineException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public OfflineException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,35 @@
+package nl.recognize.msauthplugin;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Forwards only the first result or failure to the delegate, so a request that timed out cannot be resolved again
+ * when the underlying MSAL operation completes later.
+ */
+public class OneShotTokenResultCallback implements TokenResultCallback {
+
+    private final TokenResultCallback delegate;
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    public OneShotTokenResultCallback(TokenResultCallback delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void tokenReceived(TokenResult tokenResult) {
+        if (settled.compareAndSet(false, true)) {
+            delegate.tokenReceived(tokenResult);
+        }
+    }
+
+    @Override
+    public void tokenFailed(Exception exception) {
+        if (settled.compareAndSet(false, true)) {
+            delegate.tokenFailed(exception);
+        }
+    }
+
+    public boolean isSettled() {
+        return settled.get();
+    }
+}
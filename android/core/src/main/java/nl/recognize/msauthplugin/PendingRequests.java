@@ -0,0 +1,137 @@
+package nl.recognize.msauthplugin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps track of the token requests JS is waiting for, so they can be cancelled by request id or scope set. Once a
+ * request settled, by a result, a deadline or a cancellation, everything registered to release it is run and later
+ * outcomes of the underlying MSAL operation are ignored.
+ */
+public class PendingRequests {
+
+    public final class Request implements TokenResultCallback {
+
+        private final String requestId;
+        private final String scopeKey;
+        private final TokenResultCallback delegate;
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private final List<Runnable> releasers = new ArrayList<>();
+
+        private Request(String requestId, String scopeKey, TokenResultCallback delegate) {
+            this.requestId = requestId;
+            this.scopeKey = scopeKey;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void tokenReceived(TokenResult tokenResult) {
+            if (settled.compareAndSet(false, true)) {
+                release();
+                delegate.tokenReceived(tokenResult);
+            }
+        }
+
+        @Override
+        public void tokenFailed(Exception exception) {
+            if (settled.compareAndSet(false, true)) {
+                release();
+                delegate.tokenFailed(exception);
+            }
+        }
+
+        public boolean isSettled() {
+            return settled.get();
+        }
+
+        /**
+         * Runs the given action once the request settled, right away when it already has.
+         */
+        public void onRelease(Runnable releaser) {
+            synchronized (this) {
+                if (!settled.get()) {
+                    releasers.add(releaser);
+                    return;
+                }
+            }
+
+            releaser.run();
+        }
+
+        private void release() {
+            unregister(this);
+
+            List<Runnable> toRun;
+            synchronized (this) {
+                toRun = new ArrayList<>(releasers);
+                releasers.clear();
+            }
+
+            for (Runnable releaser : toRun) {
+                releaser.run();
+            }
+        }
+    }
+
+    private final Set<Request> requests = new LinkedHashSet<>();
+
+    /**
+     * Registers a request with an optional id, identified by its normalized scopes as well.
+     */
+    public synchronized Request register(String requestId, String scopeKey, TokenResultCallback delegate) {
+        Request request = new Request(requestId, scopeKey, delegate);
+        requests.add(request);
+
+        return request;
+    }
+
+    /**
+     * Cancels the requests with the given id or, when no id is given, with the given scopes. Returns the number of
+     * cancelled requests.
+     */
+    public int cancel(String requestId, String scopeKey) {
+        List<Request> matches = new ArrayList<>();
+        synchronized (this) {
+            for (Request request : requests) {
+                if (requestId != null ? requestId.equals(request.requestId) : scopeKey != null && scopeKey.equals(request.scopeKey)) {
+                    matches.add(request);
+                }
+            }
+        }
+
+        return cancel(matches);
+    }
+
+    public int cancelAll() {
+        List<Request> matches;
+        synchronized (this) {
+            matches = new ArrayList<>(requests);
+        }
+
+        return cancel(matches);
+    }
+
+    public synchronized int size() {
+        return requests.size();
+    }
+
+    private static int cancel(List<Request> matches) {
+        int cancelled = 0;
+        for (Request request : matches) {
+            if (!request.isSettled()) {
+                request.tokenFailed(new CancellationException("Request was cancelled."));
+                cancelled++;
+            }
+        }
+
+        return cancelled;
+    }
+
+    private synchronized void unregister(Request request) {
+        requests.remove(request);
+    }
+}
@@ -0,0 +1,103 @@
+package nl.recognize.msauthplugin;
+
+/**
+ * Runs requests against an authority, retrying transient failures with backoff. Nothing is sent to an authority whose
+ * circuit is open, and retries stop once the callback was settled, e.g. by a timeout.
+ */
+public class RetryExecutor {
+
+    public interface Attempt<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Tells the failures of the authentication library apart.
+     */
+    public interface ErrorClassifier {
+        boolean isTransient(Exception ex);
+
+        Exception createCircuitOpenException(String authority);
+    }
+
+    private final CircuitBreaker circuitBreaker;
+    private final Metrics metrics;
+    private final ErrorClassifier errorClassifier;
+    private final CoreLogger logger;
+
+    public RetryExecutor(CircuitBreaker circuitBreaker, Metrics metrics, ErrorClassifier errorClassifier, CoreLogger logger) {
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
+        this.errorClassifier = errorClassifier;
+        this.logger = logger;
+    }
+
+    public <T> T execute(String authority, RetryPolicy retryPolicy, Attempt<T> attempt, OneShotTokenResultCallback callback)
+        throws Exception {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            if (!this.allowRequest(authority)) {
+                throw errorClassifier.createCircuitOpenException(authority);
+            }
+
+            boolean recorded = false;
+            try {
+                T result = attempt.run();
+                circuitBreaker.recordSuccess(authority);
+                recorded = true;
+
+                return result;
+            } catch (InterruptedException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                this.recordOutcome(authority, ex);
+                recorded = true;
+                if (
+                    !errorClassifier.isTransient(ex) ||
+                    attemptNumber >= retryPolicy.getMaxAttempts() ||
+                    (callback != null && callback.isSettled())
+                ) {
+                    throw ex;
+                }
+
+                long delayMillis = retryPolicy.getDelayMillis(attemptNumber);
+                logger.warn("Transient failure, retrying in " + delayMillis + "ms: " + ex.getMessage());
+                metrics.increment(Metrics.Counter.RETRY);
+                Thread.sleep(delayMillis);
+            } finally {
+                if (!recorded) {
+                    // Without an outcome a half-open circuit would wait for this trial forever
+                    circuitBreaker.releaseTrial(authority);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a request may be sent to the authority, counting the requests that are turned down.
+     */
+    public boolean allowRequest(String authority) {
+        if (circuitBreaker.allowRequest(authority, System.currentTimeMillis())) {
+            return true;
+        }
+
+        metrics.increment(Metrics.Counter.CIRCUIT_OPEN);
+
+        return false;
+    }
+
+    public void recordSuccess(String authority) {
+        circuitBreaker.recordSuccess(authority);
+    }
+
+    public void recordOutcome(String authority, Exception ex) {
+        // Any answer other than a transient failure means the authority is reachable
+        if (errorClassifier.isTransient(ex)) {
+            circuitBreaker.recordFailure(authority, System.currentTimeMillis());
+        } else {
+            circuitBreaker.recordSuccess(authority);
+        }
+    }
+
+    public Exception createCircuitOpenException(String authority) {
+        return errorClassifier.createCircuitOpenException(authority);
+    }
+}
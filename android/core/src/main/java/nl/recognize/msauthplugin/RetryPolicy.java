@@ -0,0 +1,39 @@
+package nl.recognize.msauthplugin;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Capped exponential backoff with jitter for retrying transient failures.
+ */
+public class RetryPolicy {
+
+    private static final double JITTER_RATIO = 0.2;
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns how long to wait before the attempt after the given (1-based) failed attempt.
+     */
+    public long getDelayMillis(int failedAttempt) {
+        long delayMillis = initialDelayMillis;
+        for (int i = 1; i < failedAttempt && delayMillis < maxDelayMillis; i++) {
+            delayMillis *= 2;
+        }
+        delayMillis = Math.min(maxDelayMillis, delayMillis);
+
+        // Jitter spreads out the retries of clients that failed at the same moment
+        return delayMillis - (long) (ThreadLocalRandom.current().nextDouble() * delayMillis * JITTER_RATIO);
+    }
+}
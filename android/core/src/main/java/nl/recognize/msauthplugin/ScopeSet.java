@@ -0,0 +1,152 @@
+package nl.recognize.msauthplugin;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical form of a set of scopes, used to look up tokens regardless of the order and casing the scopes were passed
+ * in. Scopes without a resource are Microsoft Graph permissions, so {@code User.Read} and
+ * {@code https://graph.microsoft.com/User.Read} are the same scope. The OpenID Connect scopes MSAL adds to every
+ * request are kept as they are. Scope sets with the same scopes are interned, so the canonical key is only built once
+ * per distinct set.
+ */
+public final class ScopeSet {
+
+    static final String DEFAULT_RESOURCE = "https://graph.microsoft.com/";
+    private static final String DEFAULT_RESOURCE_ID = "00000003-0000-0000-c000-000000000000/";
+    private static final Set<String> OIDC_SCOPES = new HashSet<>(Arrays.asList("openid", "profile", "offline_access", "email"));
+    private static final int MAX_INTERNED = 256;
+    private static final ConcurrentHashMap<String, ScopeSet> interned = new ConcurrentHashMap<>();
+
+    private final String[] scopes;
+    private final String key;
+    private final boolean resourceScopes;
+
+    private ScopeSet(String[] scopes, String key) {
+        this.scopes = scopes;
+        this.key = key;
+
+        boolean resourceScopes = false;
+        for (String scope : scopes) {
+            resourceScopes |= !OIDC_SCOPES.contains(scope);
+        }
+        this.resourceScopes = resourceScopes;
+    }
+
+    public static ScopeSet of(String... scopes) {
+        return of(Arrays.asList(scopes));
+    }
+
+    public static ScopeSet of(Collection<String> scopes) {
+        TreeSet<String> canonicalScopes = new TreeSet<>();
+        for (String scope : scopes) {
+            String canonicalScope = canonicalize(scope);
+            if (canonicalScope != null) {
+                canonicalScopes.add(canonicalScope);
+            }
+        }
+
+        String key = String.join(" ", canonicalScopes);
+        ScopeSet scopeSet = interned.get(key);
+        if (scopeSet != null) {
+            return scopeSet;
+        }
+
+        scopeSet = new ScopeSet(canonicalScopes.toArray(new String[0]), key);
+        if (interned.size() >= MAX_INTERNED) {
+            // Apps only use a handful of scope sets, don't let unusual callers grow the table without bounds
+            return scopeSet;
+        }
+
+        ScopeSet existing = interned.putIfAbsent(key, scopeSet);
+        return existing != null ? existing : scopeSet;
+    }
+
+    static String canonicalize(String scope) {
+        if (scope == null) {
+            return null;
+        }
+
+        String canonicalScope = scope.trim().toLowerCase(Locale.ROOT);
+        if (canonicalScope.isEmpty()) {
+            return null;
+        }
+        if (OIDC_SCOPES.contains(canonicalScope)) {
+            return canonicalScope;
+        }
+
+        if (canonicalScope.startsWith(DEFAULT_RESOURCE_ID)) {
+            return DEFAULT_RESOURCE + canonicalScope.substring(DEFAULT_RESOURCE_ID.length());
+        }
+
+        return canonicalScope.indexOf('/') < 0 ? DEFAULT_RESOURCE + canonicalScope : canonicalScope;
+    }
+
+    /**
+     * Whether every scope of the other set is in this one, so a token granted for this set also covers the other.
+     */
+    public boolean containsAll(ScopeSet other) {
+        if (other == this) {
+            return true;
+        }
+        if (other.scopes.length > scopes.length) {
+            return false;
+        }
+
+        // Both arrays are sorted, so a single pass over each suffices
+        int i = 0;
+        for (String scope : other.scopes) {
+            while (i < scopes.length && scopes[i].compareTo(scope) < 0) {
+                i++;
+            }
+            if (i == scopes.length || !scopes[i].equals(scope)) {
+                return false;
+            }
+            i++;
+        }
+
+        return true;
+    }
+
+    public int size() {
+        return scopes.length;
+    }
+
+    public boolean isEmpty() {
+        return scopes.length == 0;
+    }
+
+    /**
+     * Whether the set has scopes of a resource besides the OpenID Connect ones, which every token is granted.
+     */
+    public boolean hasResourceScopes() {
+        return resourceScopes;
+    }
+
+    /**
+     * The canonical scopes, sorted and separated by a space.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof ScopeSet && key.equals(((ScopeSet) o).key));
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
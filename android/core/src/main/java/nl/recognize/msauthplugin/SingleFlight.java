@@ -0,0 +1,94 @@
+package nl.recognize.msauthplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces concurrent token requests with the same key, so only the first caller starts an MSAL operation and every
+ * caller that joins while it runs receives the same result or failure.
+ */
+public class SingleFlight {
+
+    private final Map<String, List<TokenResultCallback>> inFlight = new HashMap<>();
+    private long coalesced;
+
+    /**
+     * Registers the callback for the given key. Returns true when the caller is the first one and should start the
+     * request, after which it must complete it through {@link #completer(String)}.
+     */
+    public synchronized boolean join(String key, TokenResultCallback callback) {
+        List<TokenResultCallback> waiters = inFlight.get(key);
+        if (waiters != null) {
+            waiters.add(callback);
+            coalesced++;
+            return false;
+        }
+
+        waiters = new ArrayList<>();
+        waiters.add(callback);
+        inFlight.put(key, waiters);
+
+        return true;
+    }
+
+    /**
+     * Returns the callback completing the request that is currently in flight for the key. It only reaches the callers
+     * of that request, even when the key was abandoned and a new request started in the meantime.
+     */
+    public synchronized TokenResultCallback completer(final String key) {
+        final List<TokenResultCallback> waiters = inFlight.get(key);
+
+        return new TokenResultCallback() {
+            @Override
+            public void tokenReceived(TokenResult tokenResult) {
+                for (TokenResultCallback waiter : take(key, waiters)) {
+                    waiter.tokenReceived(tokenResult);
+                }
+            }
+
+            @Override
+            public void tokenFailed(Exception exception) {
+                for (TokenResultCallback waiter : take(key, waiters)) {
+                    waiter.tokenFailed(exception);
+                }
+            }
+        };
+    }
+
+    /**
+     * Stops waiting for the request with the given key. Once nobody waits anymore the key is abandoned, so the next
+     * caller starts a new request instead of joining one whose outcome nobody is interested in.
+     */
+    public synchronized void leave(String key, TokenResultCallback callback) {
+        List<TokenResultCallback> waiters = inFlight.get(key);
+        if (waiters != null && waiters.remove(callback) && waiters.isEmpty()) {
+            inFlight.remove(key);
+        }
+    }
+
+    public synchronized int size() {
+        return inFlight.size();
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    private synchronized List<TokenResultCallback> take(String key, List<TokenResultCallback> waiters) {
+        if (waiters == null) {
+            return Collections.emptyList();
+        }
+
+        if (inFlight.get(key) == waiters) {
+            inFlight.remove(key);
+        }
+
+        List<TokenResultCallback> taken = new ArrayList<>(waiters);
+        waiters.clear();
+
+        return taken;
+    }
+}
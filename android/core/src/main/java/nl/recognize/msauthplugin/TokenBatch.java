@@ -0,0 +1,79 @@
+package nl.recognize.msauthplugin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the outcome of a set of named token requests and notifies the listener once every request has settled with
+ * a token, a failure, or the need for user interaction.
+ */
+public class TokenBatch {
+
+    public interface Listener {
+        void completed(TokenBatch batch);
+    }
+
+    private final Map<String, TokenResult> results = new LinkedHashMap<>();
+    private final Map<String, Exception> errors = new LinkedHashMap<>();
+    private final List<String> interactionRequired = new ArrayList<>();
+    private final Listener listener;
+    private int pending;
+
+    public TokenBatch(int size, Listener listener) {
+        this.pending = size;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the callback that settles the named request. Receiving a null token marks the request as requiring
+     * interaction.
+     */
+    public OneShotTokenResultCallback callbackFor(final String name) {
+        return new OneShotTokenResultCallback(
+            new TokenResultCallback() {
+                @Override
+                public void tokenReceived(TokenResult tokenResult) {
+                    settle(name, tokenResult, null);
+                }
+
+                @Override
+                public void tokenFailed(Exception exception) {
+                    settle(name, null, exception);
+                }
+            }
+        );
+    }
+
+    public synchronized Map<String, TokenResult> getResults() {
+        return new LinkedHashMap<>(results);
+    }
+
+    public synchronized Map<String, Exception> getErrors() {
+        return new LinkedHashMap<>(errors);
+    }
+
+    public synchronized List<String> getInteractionRequired() {
+        return new ArrayList<>(interactionRequired);
+    }
+
+    private void settle(String name, TokenResult tokenResult, Exception exception) {
+        boolean completed;
+        synchronized (this) {
+            if (exception != null) {
+                errors.put(name, exception);
+            } else if (tokenResult != null) {
+                results.put(name, tokenResult);
+            } else {
+                interactionRequired.add(name);
+            }
+
+            completed = --pending == 0;
+        }
+
+        if (completed) {
+            listener.completed(this);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package nl.recognize.msauthplugin;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TokenCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+
+    private static class Entry {
+
+        private final String key;
+        private final String namespace;
+        private final String accountId;
+        private final String authority;
+        private final ScopeSet grantedScopes;
+        private final TokenResult tokenResult;
+
+        private Entry(String key, String namespace, String accountId, String authority, ScopeSet grantedScopes, TokenResult tokenResult) {
+            this.key = key;
+            this.namespace = namespace;
+            this.accountId = accountId;
+            this.authority = authority;
+            this.grantedScopes = grantedScopes;
+            this.tokenResult = tokenResult;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    private long hits;
+    private long supersetHits;
+    private long misses;
+
+    public TokenCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public TokenCache(final int maxEntries) {
+        // Access ordered, so the eldest entry is always the least recently used one
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached token for the namespace (the configuration the token was acquired with, so applications with
+     * another client id never share tokens), account, authority and scopes when it is still valid for at least the given
+     * margin. Without one, a valid token that was granted for more scopes than requested is returned instead. Expired
+     * tokens are evicted; tokens that only expire within the margin are kept, so they can still be served while the
+     * device is offline.
+     */
+    public synchronized TokenResult get(String namespace, String accountId, String authority, ScopeSet scopes, long now, long marginMillis) {
+        String key = createKey(namespace, accountId, authority, scopes);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (isValid(entry.tokenResult, now, marginMillis)) {
+                hits++;
+                return entry.tokenResult;
+            }
+
+            if (!isValid(entry.tokenResult, now, 0)) {
+                entries.remove(key);
+            }
+        }
+
+        // Every token is granted the OpenID Connect scopes, so they alone don't tell which resource the token is for
+        Entry supersetEntry = scopes.hasResourceScopes() ? findSuperset(namespace, accountId, authority, scopes, now, marginMillis) : null;
+        if (supersetEntry == null) {
+            misses++;
+            return null;
+        }
+
+        // Mark the entry as recently used
+        entries.get(supersetEntry.key);
+        hits++;
+        supersetHits++;
+        return supersetEntry.tokenResult;
+    }
+
+    /**
+     * Caches the token under the requested scopes. For lookups with other scopes, the token counts for the scopes it
+     * was granted, or the requested ones when the result doesn't list them.
+     */
+    public synchronized void put(String namespace, String accountId, String authority, ScopeSet scopes, TokenResult tokenResult) {
+        if (accountId == null || tokenResult.getExpiresOn() == null) {
+            return;
+        }
+
+        String[] grantedScopes = tokenResult.getScopes();
+        String key = createKey(namespace, accountId, authority, scopes);
+        entries.put(
+            key,
+            new Entry(
+                key,
+                namespace,
+                accountId,
+                authority,
+                grantedScopes != null && grantedScopes.length > 0 ? ScopeSet.of(Arrays.asList(grantedScopes)) : scopes,
+                tokenResult
+            )
+        );
+    }
+
+    public synchronized void removeAccount(String namespace, String accountId) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.namespace.equals(namespace) && entry.accountId.equals(accountId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void evictExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (!isValid(iterator.next().tokenResult, now, 0)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * The number of hits that were served by a token granted for more scopes than requested.
+     */
+    public synchronized long getSupersetHitCount() {
+        return supersetHits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    static String createKey(String namespace, String accountId, String authority, ScopeSet scopes) {
+        return namespace + "|" + accountId + "|" + authority + "|" + scopes.getKey();
+    }
+
+    /**
+     * Finds the valid token of the namespace, account and authority with the requested scopes among its granted ones,
+     * preferring the one that stays valid the longest.
+     */
+    private Entry findSuperset(String namespace, String accountId, String authority, ScopeSet scopes, long now, long marginMillis) {
+        Entry bestEntry = null;
+        for (Entry entry : entries.values()) {
+            if (
+                entry.namespace.equals(namespace) &&
+                entry.accountId.equals(accountId) &&
+                entry.authority.equals(authority) &&
+                entry.grantedScopes.containsAll(scopes) &&
+                isValid(entry.tokenResult, now, marginMillis) &&
+                (bestEntry == null || entry.tokenResult.getExpiresOn().after(bestEntry.tokenResult.getExpiresOn()))
+            ) {
+                bestEntry = entry;
+            }
+        }
+
+        return bestEntry;
+    }
+
+    private static boolean isValid(TokenResult tokenResult, long now, long marginMillis) {
+        return tokenResult.getExpiresOn().getTime() - marginMillis > now;
+    }
+}
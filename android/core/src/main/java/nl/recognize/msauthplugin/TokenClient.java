@@ -0,0 +1,40 @@
+package nl.recognize.msauthplugin;
+
+import java.util.List;
+
+/**
+ * The authentication library as seen by the token flows, bound to a single configuration. The Android implementation
+ * wraps an MSAL public client application, which keeps the flows free of MSAL so they run and are tested on a plain JVM.
+ */
+public interface TokenClient {
+    /**
+     * Identifies the configuration, tokens are only shared between clients with the same namespace.
+     */
+    String getNamespace();
+
+    String getAuthority();
+
+    /**
+     * Returns the account with the given id or username, or the signed in account when the id is null. Returns null
+     * when there is no such account.
+     */
+    Account loadAccount(String accountId) throws Exception;
+
+    /**
+     * Acquires a token without prompting, blocking until it is received.
+     *
+     * @throws InteractionRequiredException when the token can only be acquired with the help of the user
+     */
+    TokenResult acquireTokenSilently(Account account, List<String> scopes, boolean forceRefresh) throws Exception;
+
+    /**
+     * Prompts the user for a token, also asking consent for the other scopes. The account is used as login hint and may
+     * be null. Completes with a null token when the user cancels.
+     */
+    void acquireTokenInteractively(Account account, List<String> scopes, List<String> otherScopes, String prompt, TokenResultCallback callback);
+
+    /**
+     * Forgets the loaded account, so the next load asks the authentication library again.
+     */
+    void invalidateAccount();
+}
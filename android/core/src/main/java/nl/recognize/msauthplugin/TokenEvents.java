@@ -0,0 +1,203 @@
+package nl.recognize.msauthplugin;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns token and account changes into events for the app, so it doesn't have to poll for them. Events are coalesced
+ * per key: the first one opens a short window, later ones replace it, and only the last one is delivered when the
+ * window closes. A token that isn't renewed before it comes within its expiry margin raises a tokenExpiring event.
+ */
+public class TokenEvents {
+
+    public interface Listener {
+        void tokenRefreshed(TokenResult tokenResult);
+
+        void tokenExpiring(TokenResult tokenResult);
+
+        void accountChanged(String accountId, String username, String priorAccountId, String priorUsername);
+
+        void signedOut(String accountId, String username);
+    }
+
+    private static class TrackedToken {
+
+        private final String accountId;
+        private final String accessTokenHash;
+        private final long expiringAheadMillis;
+        private ScheduledFuture<?> expiring;
+
+        private TrackedToken(String accountId, String accessTokenHash, long expiringAheadMillis) {
+            this.accountId = accountId;
+            this.accessTokenHash = accessTokenHash;
+            this.expiringAheadMillis = expiringAheadMillis;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final long windowMillis;
+    private final Listener listener;
+    private final CoreLogger logger;
+    private final Map<String, TrackedToken> tokens = new HashMap<>();
+    private final Map<String, Runnable> pendingEvents = new HashMap<>();
+    private long coalesced;
+    private boolean stopped;
+
+    public TokenEvents(ScheduledExecutorService scheduler, long windowMillis, Listener listener, CoreLogger logger) {
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+        this.listener = listener;
+        this.logger = logger;
+    }
+
+    /**
+     * Records a token handed out for the key. A token that differs from the one recorded before raises a tokenRefreshed
+     * event; the first token for a key doesn't, the caller already has it.
+     */
+    public synchronized void tokenIssued(String key, final TokenResult tokenResult, long expiringAheadMillis) {
+        TrackedToken trackedToken = tokens.get(key);
+        if (trackedToken != null && equals(trackedToken.accessTokenHash, tokenResult.getAccessTokenHash())) {
+            return;
+        }
+
+        track(key, tokenResult, expiringAheadMillis);
+        if (trackedToken != null) {
+            post("tokenRefreshed|" + key, () -> listener.tokenRefreshed(tokenResult));
+        }
+    }
+
+    /**
+     * Records a token that was renewed without the app asking for it and raises a tokenRefreshed event.
+     */
+    public synchronized void tokenRefreshed(String key, final TokenResult tokenResult) {
+        TrackedToken trackedToken = tokens.get(key);
+        track(key, tokenResult, trackedToken != null ? trackedToken.expiringAheadMillis : 0);
+        post("tokenRefreshed|" + key, () -> listener.tokenRefreshed(tokenResult));
+    }
+
+    public synchronized void accountChanged(
+        String key,
+        final String accountId,
+        final String username,
+        final String priorAccountId,
+        final String priorUsername
+    ) {
+        post("accountChanged|" + key, () -> listener.accountChanged(accountId, username, priorAccountId, priorUsername));
+    }
+
+    /**
+     * Forgets the tokens of the account and raises a signedOut event.
+     */
+    public synchronized void signedOut(final String accountId, final String username) {
+        forgetAccount(accountId);
+        post("signedOut|" + accountId, () -> listener.signedOut(accountId, username));
+    }
+
+    public synchronized void forgetAccount(String accountId) {
+        Iterator<TrackedToken> iterator = tokens.values().iterator();
+        while (iterator.hasNext()) {
+            TrackedToken trackedToken = iterator.next();
+            if (equals(accountId, trackedToken.accountId)) {
+                cancel(trackedToken);
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        stopped = true;
+        for (TrackedToken trackedToken : tokens.values()) {
+            cancel(trackedToken);
+        }
+        tokens.clear();
+        pendingEvents.clear();
+    }
+
+    /**
+     * The number of events that were replaced by a later one for the same key before they were delivered.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalesced;
+    }
+
+    private void track(final String key, final TokenResult tokenResult, long expiringAheadMillis) {
+        TrackedToken previousToken = tokens.get(key);
+        if (previousToken != null) {
+            cancel(previousToken);
+        }
+
+        final TrackedToken trackedToken = new TrackedToken(tokenResult.getAccountId(), tokenResult.getAccessTokenHash(), expiringAheadMillis);
+        tokens.put(key, trackedToken);
+        if (tokenResult.getExpiresOn() == null || stopped) {
+            return;
+        }
+
+        long delayMillis = tokenResult.getExpiresOn().getTime() - expiringAheadMillis - System.currentTimeMillis();
+        try {
+            trackedToken.expiring = scheduler.schedule(
+                () -> expire(key, trackedToken, tokenResult),
+                Math.max(0, delayMillis),
+                TimeUnit.MILLISECONDS
+            );
+        } catch (RejectedExecutionException ex) {
+            // Shutting down
+        }
+    }
+
+    private synchronized void expire(String key, TrackedToken trackedToken, final TokenResult tokenResult) {
+        // The token may have been renewed or forgotten in the meantime
+        if (tokens.get(key) == trackedToken) {
+            trackedToken.expiring = null;
+            post("tokenExpiring|" + key, () -> listener.tokenExpiring(tokenResult));
+        }
+    }
+
+    private void post(final String eventKey, Runnable event) {
+        if (stopped) {
+            return;
+        }
+
+        if (pendingEvents.put(eventKey, event) != null) {
+            coalesced++;
+            return;
+        }
+
+        try {
+            scheduler.schedule(() -> deliver(eventKey), windowMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            pendingEvents.remove(eventKey);
+        }
+    }
+
+    private void deliver(String eventKey) {
+        Runnable event;
+        synchronized (this) {
+            event = pendingEvents.remove(eventKey);
+        }
+
+        // Outside the lock, so listeners can't block new events
+        if (event != null) {
+            try {
+                event.run();
+            } catch (Exception ex) {
+                logger.error("Unable to deliver event", ex);
+            }
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void cancel(TrackedToken trackedToken) {
+        if (trackedToken.expiring != null) {
+            trackedToken.expiring.cancel(false);
+            trackedToken.expiring = null;
+        }
+    }
+}
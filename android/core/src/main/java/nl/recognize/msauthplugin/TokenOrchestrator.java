@@ -0,0 +1,568 @@
+package nl.recognize.msauthplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs the token flows against a {@link TokenClient}: a token is served from the cache or acquired silently with
+ * retries, and the user is only prompted when the silent flow can't do without. The platform adapter only translates
+ * its calls and the results.
+ */
+public class TokenOrchestrator {
+
+    public interface BatchListener {
+        /**
+         * Called once every named request settled. Requests that still needed the user fail with an
+         * {@link InteractionRequiredException}, cancelled ones with a {@link CancellationException}.
+         */
+        void completed(Map<String, TokenResult> results, Map<String, Exception> errors);
+    }
+
+    private final TokenCache tokenCache;
+    private final TokenPipeline tokenPipeline;
+    private final PendingRequests pendingRequests;
+    private final RetryExecutor retryExecutor;
+    private final Metrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final CoreLogger logger;
+    // Accounts whose last silent attempt needed the user, so the next one is likely to end up prompting as well
+    private final Set<String> interactionRequiredAccounts = Collections.synchronizedSet(new HashSet<String>());
+
+    public TokenOrchestrator(
+        TokenCache tokenCache,
+        TokenPipeline tokenPipeline,
+        PendingRequests pendingRequests,
+        RetryExecutor retryExecutor,
+        Metrics metrics,
+        ScheduledExecutorService scheduler,
+        Executor executor,
+        CoreLogger logger
+    ) {
+        this.tokenCache = tokenCache;
+        this.tokenPipeline = tokenPipeline;
+        this.pendingRequests = pendingRequests;
+        this.retryExecutor = retryExecutor;
+        this.metrics = metrics;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.logger = logger;
+    }
+
+    /**
+     * Acquires a token for the scopes, prompting when the silent flow needs the user unless the request is silent only.
+     * A silent only request completes with a null token instead. The browser warm-up is started when a prompt is
+     * likely, pass null to skip it.
+     */
+    public void acquire(
+        final TokenClient client,
+        String accountId,
+        final List<String> scopes,
+        final String prompt,
+        long expiryMarginMillis,
+        final long silentTimeoutMillis,
+        final RetryPolicy retryPolicy,
+        final boolean silentOnly,
+        final BrowserWarmup browserWarmup,
+        ConnectivityMonitor connectivity,
+        PendingRequests.Request callback
+    ) throws Exception {
+        final Account account = client.loadAccount(accountId);
+
+        // Concurrent requests for the same configuration, prompt, account and scopes share a single flow; a caller
+        // asking for a prompt is never answered by a flight that prompts differently, or not at all
+        tokenPipeline.acquire(
+            client.getNamespace(),
+            silentOnly ? "silent" : prompt,
+            account != null ? account.getId() : null,
+            client.getAuthority(),
+            ScopeSet.of(scopes),
+            expiryMarginMillis,
+            connectivity,
+            callback,
+            sharedCallback ->
+                this.requestToken(
+                        client,
+                        account,
+                        scopes,
+                        prompt,
+                        silentTimeoutMillis,
+                        retryPolicy,
+                        silentOnly,
+                        silentOnly ? null : browserWarmup,
+                        sharedCallback
+                    )
+        );
+    }
+
+    /**
+     * Acquires a token for each named set of scopes. Each set goes through the cache, coalescing and retries like a
+     * single request, silently at first; a single prompt then asks consent for every set that needs the user. The
+     * requests of the sets are registered alongside the batch request, and stop waiting once it is cancelled or timed
+     * out.
+     */
+    public void acquireBatch(
+        final TokenClient client,
+        String accountId,
+        final Map<String, List<String>> requests,
+        final String prompt,
+        final long expiryMarginMillis,
+        final long silentTimeoutMillis,
+        final RetryPolicy retryPolicy,
+        final ConnectivityMonitor connectivity,
+        final PendingRequests.Request batchRequest,
+        final BatchListener listener
+    ) throws Exception {
+        final Account account = client.loadAccount(accountId);
+
+        this.acquireBatchSilently(client, account, requests, expiryMarginMillis, silentTimeoutMillis, retryPolicy, connectivity, batchRequest, batch -> {
+                if (batch.getInteractionRequired().isEmpty()) {
+                    listener.completed(batch.getResults(), batch.getErrors());
+                    return;
+                }
+
+                this.acquireBatchInteractively(
+                        client,
+                        account,
+                        requests,
+                        batch,
+                        prompt,
+                        expiryMarginMillis,
+                        silentTimeoutMillis,
+                        retryPolicy,
+                        connectivity,
+                        batchRequest,
+                        listener
+                    );
+            });
+    }
+
+    /**
+     * Creates the task that renews the token of the account ahead of expiry, see {@link TokenRefresher}.
+     */
+    public TokenRefresher.RefreshTask createRefreshTask(
+        final TokenClient client,
+        final String accountId,
+        final List<String> scopes,
+        final RetryPolicy retryPolicy,
+        final ConnectivityMonitor connectivity
+    ) {
+        return callback -> {
+            try {
+                executor.execute(() -> {
+                    try {
+                        if (!connectivity.isConnected()) {
+                            // The refresher is paused until connectivity returns and the refresh is retried then
+                            callback.tokenFailed(new OfflineException("Device is offline."));
+                            return;
+                        }
+
+                        // Single account applications answer with the current account, which may no longer be the
+                        // one the token was issued to; its token must not end up under the tracked account
+                        final Account account = client.loadAccount(accountId);
+                        if (account == null || !account.getId().equals(accountId)) {
+                            callback.tokenReceived(null);
+                            return;
+                        }
+
+                        String authority = client.getAuthority();
+                        TokenResult tokenResult = retryExecutor.execute(
+                            authority,
+                            retryPolicy,
+                            () -> acquireTokenSilently(client, account, scopes, true),
+                            null
+                        );
+                        tokenCache.put(client.getNamespace(), tokenResult.getAccountId(), authority, ScopeSet.of(scopes), tokenResult);
+
+                        callback.tokenReceived(tokenResult);
+                    } catch (InteractionRequiredException ex) {
+                        logger.info("Token can no longer be refreshed silently");
+                        client.invalidateAccount();
+                        callback.tokenReceived(null);
+                    } catch (Exception ex) {
+                        logger.error("Unable to refresh token ahead of expiry", ex);
+                        callback.tokenFailed(ex);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                callback.tokenFailed(ex);
+            }
+        };
+    }
+
+    public void forgetAccount(String namespace, String accountId) {
+        tokenCache.removeAccount(namespace, accountId);
+        interactionRequiredAccounts.remove(accountId);
+    }
+
+    private void requestToken(
+        final TokenClient client,
+        final Account account,
+        final List<String> scopes,
+        String prompt,
+        long silentTimeoutMillis,
+        RetryPolicy retryPolicy,
+        boolean silentOnly,
+        BrowserWarmup browserWarmup,
+        final OneShotTokenResultCallback callback
+    ) throws Exception {
+        final String authority = client.getAuthority();
+
+        // Without an account, or when its last silent attempt needed the user, a prompt is likely to follow, so the
+        // browser starts while the silent flow is still running
+        boolean warmedUp = false;
+        if (browserWarmup != null && (account == null || interactionRequiredAccounts.contains(account.getId()))) {
+            this.warmUp(browserWarmup, authority);
+            warmedUp = true;
+        }
+
+        if (account != null) {
+            try {
+                logger.debug("Starting silent login flow");
+                TokenResult tokenResult;
+                SilentTimeout silentTimeout = this.scheduleTimeout(callback, silentTimeoutMillis);
+                try {
+                    tokenResult = retryExecutor.execute(authority, retryPolicy, () -> acquireTokenSilently(client, account, scopes, false), callback);
+                } finally {
+                    if (silentTimeout != null) {
+                        silentTimeout.release();
+                    }
+                }
+
+                tokenCache.put(client.getNamespace(), tokenResult.getAccountId(), authority, ScopeSet.of(scopes), tokenResult);
+                interactionRequiredAccounts.remove(account.getId());
+                callback.tokenReceived(tokenResult);
+
+                return;
+            } catch (InteractionRequiredException ex) {
+                logger.info("Silent login requires user interaction: " + ex.getMessage());
+                interactionRequiredAccounts.add(account.getId());
+            }
+
+            if (callback.isSettled()) {
+                // The request timed out while the silent flow was running, so nobody is waiting for a prompt anymore
+                return;
+            }
+        }
+
+        if (silentOnly) {
+            callback.tokenReceived(null);
+            return;
+        }
+
+        if (browserWarmup != null && !warmedUp) {
+            // Still gives the browser a head start while the prompt is prepared
+            this.warmUp(browserWarmup, authority);
+        }
+
+        logger.info("Starting interactive login flow");
+        this.promptForToken(
+                client,
+                account,
+                scopes,
+                Collections.<String>emptyList(),
+                prompt,
+                new TokenResultCallback() {
+                    @Override
+                    public void tokenReceived(TokenResult tokenResult) {
+                        callback.tokenReceived(tokenResult);
+                    }
+
+                    @Override
+                    public void tokenFailed(Exception ex) {
+                        // A failed prompt ends the login like a cancelled one
+                        callback.tokenReceived(null);
+                    }
+                }
+            );
+    }
+
+    /**
+     * Prompts the user, also asking consent for the other scopes. Completes with a null token when the user cancels.
+     */
+    private void promptForToken(
+        final TokenClient client,
+        Account account,
+        final List<String> scopes,
+        List<String> otherScopes,
+        String prompt,
+        final TokenResultCallback callback
+    ) {
+        final long interactiveStartTime = System.nanoTime();
+        client.acquireTokenInteractively(
+            account,
+            scopes,
+            otherScopes,
+            prompt,
+            new TokenResultCallback() {
+                @Override
+                public void tokenReceived(TokenResult tokenResult) {
+                    metrics.record(Metrics.Phase.INTERACTIVE, interactiveStartTime, false);
+                    if (tokenResult == null) {
+                        logger.info("Login cancelled");
+                        callback.tokenReceived(null);
+                        return;
+                    }
+
+                    interactionRequiredAccounts.remove(tokenResult.getAccountId());
+                    tokenCache.put(client.getNamespace(), tokenResult.getAccountId(), client.getAuthority(), ScopeSet.of(scopes), tokenResult);
+                    callback.tokenReceived(tokenResult);
+                }
+
+                @Override
+                public void tokenFailed(Exception ex) {
+                    metrics.record(Metrics.Phase.INTERACTIVE, interactiveStartTime, true);
+                    logger.error("Unable to acquire token interactively", ex);
+                    callback.tokenFailed(ex);
+                }
+            }
+        );
+    }
+
+    private void acquireBatchSilently(
+        final TokenClient client,
+        final Account account,
+        Map<String, List<String>> requests,
+        long expiryMarginMillis,
+        final long silentTimeoutMillis,
+        final RetryPolicy retryPolicy,
+        ConnectivityMonitor connectivity,
+        PendingRequests.Request batchRequest,
+        TokenBatch.Listener listener
+    ) {
+        TokenBatch batch = new TokenBatch(requests.size(), listener);
+        for (Map.Entry<String, List<String>> request : requests.entrySet()) {
+            final List<String> scopes = request.getValue();
+            ScopeSet scopeSet = ScopeSet.of(scopes);
+            // Each scope set is fetched on its own worker, so the sets are acquired in parallel
+            tokenPipeline.acquire(
+                client.getNamespace(),
+                "silent",
+                account != null ? account.getId() : null,
+                client.getAuthority(),
+                scopeSet,
+                expiryMarginMillis,
+                connectivity,
+                this.register(batchRequest, scopeSet, batch.callbackFor(request.getKey())),
+                sharedCallback ->
+                    executor.execute(() -> {
+                        try {
+                            requestToken(client, account, scopes, null, silentTimeoutMillis, retryPolicy, true, null, sharedCallback);
+                        } catch (Exception ex) {
+                            sharedCallback.tokenFailed(ex);
+                        }
+                    })
+            );
+        }
+    }
+
+    private void acquireBatchInteractively(
+        final TokenClient client,
+        Account account,
+        final Map<String, List<String>> requests,
+        TokenBatch silentBatch,
+        String prompt,
+        final long expiryMarginMillis,
+        final long silentTimeoutMillis,
+        final RetryPolicy retryPolicy,
+        final ConnectivityMonitor connectivity,
+        final PendingRequests.Request batchRequest,
+        final BatchListener listener
+    ) {
+        final Map<String, TokenResult> results = silentBatch.getResults();
+        final Map<String, Exception> errors = silentBatch.getErrors();
+        final List<String> interactionRequired = silentBatch.getInteractionRequired();
+        final String promptedName = interactionRequired.get(0);
+        final List<String> promptedScopes = requests.get(promptedName);
+
+        // A single prompt asks consent for the scopes of every request that requires interaction
+        Set<String> otherScopes = new LinkedHashSet<>();
+        for (String name : interactionRequired) {
+            otherScopes.addAll(requests.get(name));
+        }
+        otherScopes.removeAll(promptedScopes);
+        final List<String> otherScopeList = new ArrayList<>(otherScopes);
+
+        TokenResultCallback callback = new TokenResultCallback() {
+            @Override
+            public void tokenReceived(TokenResult tokenResult) {
+                if (tokenResult == null) {
+                    for (String name : interactionRequired) {
+                        errors.put(name, new CancellationException("User cancelled the flow."));
+                    }
+
+                    listener.completed(results, errors);
+                    return;
+                }
+
+                results.put(promptedName, tokenResult);
+
+                Map<String, List<String>> remainingRequests = new LinkedHashMap<>();
+                for (String name : interactionRequired) {
+                    if (!name.equals(promptedName)) {
+                        remainingRequests.put(name, requests.get(name));
+                    }
+                }
+
+                if (remainingRequests.isEmpty()) {
+                    listener.completed(results, errors);
+                    return;
+                }
+
+                // The user may have picked another account than the hinted one
+                Account promptedAccount;
+                try {
+                    promptedAccount = client.loadAccount(tokenResult.getAccountId());
+                } catch (Exception ex) {
+                    for (String name : remainingRequests.keySet()) {
+                        errors.put(name, ex);
+                    }
+
+                    listener.completed(results, errors);
+                    return;
+                }
+
+                acquireBatchSilently(
+                    client,
+                    promptedAccount,
+                    remainingRequests,
+                    expiryMarginMillis,
+                    silentTimeoutMillis,
+                    retryPolicy,
+                    connectivity,
+                    batchRequest,
+                    batch -> {
+                        results.putAll(batch.getResults());
+                        errors.putAll(batch.getErrors());
+                        for (String name : batch.getInteractionRequired()) {
+                            errors.put(name, new InteractionRequiredException("Interaction required.", null));
+                        }
+
+                        listener.completed(results, errors);
+                    }
+                );
+            }
+
+            @Override
+            public void tokenFailed(Exception ex) {
+                for (String name : interactionRequired) {
+                    errors.put(name, ex);
+                }
+
+                listener.completed(results, errors);
+            }
+        };
+
+        logger.info("Starting interactive login flow for " + interactionRequired.size() + " scope set(s)");
+        // Only prompts that ask consent for the same other scopes are shared
+        ScopeSet promptedScopeSet = ScopeSet.of(promptedScopes);
+        tokenPipeline.acquire(
+            client.getNamespace(),
+            prompt + "|" + ScopeSet.of(otherScopeList).getKey(),
+            account != null ? account.getId() : null,
+            client.getAuthority(),
+            promptedScopeSet,
+            expiryMarginMillis,
+            connectivity,
+            this.register(batchRequest, promptedScopeSet, callback),
+            sharedCallback -> promptForToken(client, account, promptedScopes, otherScopeList, prompt, sharedCallback)
+        );
+    }
+
+    private PendingRequests.Request register(PendingRequests.Request batchRequest, ScopeSet scopes, TokenResultCallback callback) {
+        final PendingRequests.Request request = pendingRequests.register(null, scopes.getKey(), callback);
+        // Runs right away when the batch already settled, e.g. when it was cancelled before the prompt
+        batchRequest.onRelease(() -> request.tokenFailed(new CancellationException("Request was cancelled.")));
+
+        return request;
+    }
+
+    private TokenResult acquireTokenSilently(TokenClient client, Account account, List<String> scopes, boolean forceRefresh)
+        throws Exception {
+        long startTime = System.nanoTime();
+        try {
+            TokenResult tokenResult = client.acquireTokenSilently(account, scopes, forceRefresh);
+            metrics.record(Metrics.Phase.SILENT, startTime, false);
+
+            return tokenResult;
+        } catch (Exception ex) {
+            metrics.record(Metrics.Phase.SILENT, startTime, true);
+            throw ex;
+        }
+    }
+
+    private void warmUp(BrowserWarmup browserWarmup, String authority) {
+        try {
+            browserWarmup.warmUp(authority);
+        } catch (Exception ex) {
+            logger.warn("Unable to warm up the browser: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Fails the callback once the silent flow on the current thread takes too long, and interrupts the thread. The
+     * silent flow blocks a worker, and the few workers there are would otherwise all end up waiting for requests that
+     * hang.
+     */
+    private SilentTimeout scheduleTimeout(final TokenResultCallback callback, long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            return null;
+        }
+
+        final SilentTimeout silentTimeout = new SilentTimeout(Thread.currentThread());
+        silentTimeout.future = scheduler.schedule(
+            () -> {
+                callback.tokenFailed(new TimeoutException("Silent token acquisition timed out."));
+                silentTimeout.interrupt();
+            },
+            timeoutMillis,
+            TimeUnit.MILLISECONDS
+        );
+
+        return silentTimeout;
+    }
+
+    private static final class SilentTimeout {
+
+        private final Thread worker;
+        private volatile ScheduledFuture<?> future;
+        private boolean released;
+        private boolean interrupted;
+
+        private SilentTimeout(Thread worker) {
+            this.worker = worker;
+        }
+
+        private synchronized void interrupt() {
+            if (!released) {
+                interrupted = true;
+                worker.interrupt();
+            }
+        }
+
+        /**
+         * Called by the worker once the silent flow returned. An interrupt that was meant for the silent flow is
+         * cleared, so the worker can go on with its next task.
+         */
+        private synchronized void release() {
+            released = true;
+            future.cancel(false);
+            if (interrupted) {
+                Thread.interrupted();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package nl.recognize.msauthplugin;
+
+/**
+ * Answers a token request from the token cache when possible and from the remaining valid token while the device is
+ * offline. Otherwise concurrent requests with the same key share a single fetch.
+ */
+public class TokenPipeline {
+
+    public interface Fetcher {
+        void fetch(OneShotTokenResultCallback callback) throws Exception;
+    }
+
+    private final TokenCache tokenCache;
+    private final SingleFlight inFlightRequests;
+    private final Metrics metrics;
+    private final CoreLogger logger;
+
+    public TokenPipeline(TokenCache tokenCache, SingleFlight inFlightRequests, Metrics metrics, CoreLogger logger) {
+        this.tokenCache = tokenCache;
+        this.inFlightRequests = inFlightRequests;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    /**
+     * Acquires a token for the account, which may be null when no account is signed in yet. The namespace identifies the
+     * configuration, so tokens are only served to requests with the same one. Requests only share a fetch when they have
+     * the same namespace, variant (the options that change how a token is fetched), account, authority and canonical
+     * scopes.
+     */
+    public void acquire(
+        String namespace,
+        String variant,
+        String accountId,
+        String authority,
+        ScopeSet scopes,
+        long expiryMarginMillis,
+        ConnectivityMonitor connectivity,
+        final PendingRequests.Request callback,
+        Fetcher fetcher
+    ) {
+        if (accountId != null) {
+            TokenResult cachedTokenResult = tokenCache.get(
+                namespace,
+                accountId,
+                authority,
+                scopes,
+                System.currentTimeMillis(),
+                expiryMarginMillis
+            );
+            if (cachedTokenResult != null) {
+                callback.tokenReceived(cachedTokenResult);
+                return;
+            }
+        }
+
+        if (!connectivity.isConnected()) {
+            this.resolveOffline(namespace, accountId, authority, scopes, callback);
+            return;
+        }
+
+        final String requestKey = variant + "|" + TokenCache.createKey(namespace, accountId, authority, scopes);
+        boolean first = inFlightRequests.join(requestKey, callback);
+        // A cancelled or timed out caller stops waiting, the shared fetch continues for the other callers
+        callback.onRelease(() -> inFlightRequests.leave(requestKey, callback));
+        if (!first) {
+            logger.debug("Joining in-flight token request");
+            return;
+        }
+
+        OneShotTokenResultCallback sharedCallback = new OneShotTokenResultCallback(inFlightRequests.completer(requestKey));
+        try {
+            fetcher.fetch(sharedCallback);
+        } catch (Exception ex) {
+            sharedCallback.tokenFailed(ex);
+        }
+    }
+
+    /**
+     * Without a network no token can be fetched, so a token that is still valid is served even though it expires within
+     * the margin, and the request fails right away otherwise.
+     */
+    public void resolveOffline(String namespace, String accountId, String authority, ScopeSet scopes, TokenResultCallback callback) {
+        metrics.increment(Metrics.Counter.OFFLINE);
+        TokenResult validTokenResult = accountId != null
+            ? tokenCache.get(namespace, accountId, authority, scopes, System.currentTimeMillis(), 0)
+            : null;
+        if (validTokenResult != null) {
+            logger.info("Device is offline, serving cached token");
+            callback.tokenReceived(validTokenResult);
+        } else {
+            callback.tokenFailed(new OfflineException("Device is offline."));
+        }
+    }
+}
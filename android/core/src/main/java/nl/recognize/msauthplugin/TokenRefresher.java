@@ -0,0 +1,259 @@
+package nl.recognize.msauthplugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Silently renews tracked tokens a configurable interval before they expire, so callers don't have to wait for a
+ * refresh on the first request after expiry.
+ */
+public class TokenRefresher {
+
+    public interface RefreshTask {
+        /**
+         * Refreshes the token. Completing with a null token means it can no longer be refreshed silently and stops
+         * tracking it, a failure is retried with backoff.
+         */
+        void refresh(TokenResultCallback callback);
+    }
+
+    public interface Listener {
+        void tokenRefreshed(String key, TokenResult tokenResult);
+    }
+
+    static final long MIN_DELAY_MILLIS = 1000;
+    static final long INITIAL_BACKOFF_MILLIS = 30000;
+    static final long MAX_BACKOFF_MILLIS = 600000;
+    private static final double JITTER_RATIO = 0.1;
+
+    private static class Entry {
+
+        private final String key;
+        private final String group;
+        private RefreshTask task;
+        private long refreshAheadMillis;
+        private long expiresOn;
+        private long backoffMillis = INITIAL_BACKOFF_MILLIS;
+        private boolean once;
+        private boolean running;
+        private ScheduledFuture<?> future;
+
+        private Entry(String key, String group) {
+            this.key = key;
+            this.group = group;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Semaphore permits;
+    private final Listener listener;
+    private final Random random = new Random();
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean paused;
+
+    public TokenRefresher(ScheduledExecutorService scheduler, int maxConcurrentRefreshes, Listener listener) {
+        this.scheduler = scheduler;
+        this.permits = new Semaphore(maxConcurrentRefreshes);
+        this.listener = listener;
+    }
+
+    /**
+     * Starts (or updates) tracking of the token under the given key. Keys are grouped, so all tokens belonging to a
+     * configuration can be untracked at once.
+     */
+    public synchronized void track(String key, String group, RefreshTask task, TokenResult tokenResult, long refreshAheadMillis) {
+        if (tokenResult.getExpiresOn() == null || refreshAheadMillis <= 0) {
+            return;
+        }
+
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, group);
+            entries.put(key, entry);
+        }
+
+        entry.task = task;
+        entry.once = false;
+        entry.refreshAheadMillis = refreshAheadMillis;
+        entry.expiresOn = tokenResult.getExpiresOn().getTime();
+        if (!entry.running) {
+            schedule(entry, delayUntilRefresh(entry));
+        }
+    }
+
+    /**
+     * Queues a single refresh of the token under the given key, which runs as soon as the refresher isn't paused, e.g.
+     * for a request that was answered while the device was offline. A token that is tracked already is left as it is,
+     * its refresh catches up on resume anyway.
+     */
+    public synchronized void queue(String key, String group, RefreshTask task) {
+        if (entries.containsKey(key)) {
+            return;
+        }
+
+        Entry entry = new Entry(key, group);
+        entry.task = task;
+        entry.once = true;
+        entries.put(key, entry);
+        if (!paused) {
+            schedule(entry, delayUntilRefresh(entry));
+        }
+    }
+
+    public synchronized void untrackGroup(String group) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.group.equals(group)) {
+                cancel(entry);
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        for (Entry entry : entries.values()) {
+            cancel(entry);
+        }
+
+        entries.clear();
+    }
+
+    /**
+     * While paused, due refreshes are postponed with exponential backoff. Resuming reschedules every tracked token,
+     * refreshing overdue ones right away.
+     */
+    public synchronized void setPaused(boolean paused) {
+        if (this.paused == paused) {
+            return;
+        }
+
+        this.paused = paused;
+        if (!paused) {
+            for (Entry entry : new ArrayList<>(entries.values())) {
+                entry.backoffMillis = INITIAL_BACKOFF_MILLIS;
+                if (!entry.running) {
+                    schedule(entry, delayUntilRefresh(entry));
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void run(final Entry entry) {
+        synchronized (this) {
+            if (entries.get(entry.key) != entry || entry.running) {
+                return;
+            }
+
+            if (paused) {
+                schedule(entry, nextBackoff(entry));
+                return;
+            }
+
+            if (!permits.tryAcquire()) {
+                schedule(entry, MIN_DELAY_MILLIS + jitter(MIN_DELAY_MILLIS));
+                return;
+            }
+
+            entry.running = true;
+        }
+
+        TokenResultCallback callback = new OneShotTokenResultCallback(
+            new TokenResultCallback() {
+                @Override
+                public void tokenReceived(TokenResult tokenResult) {
+                    permits.release();
+                    if (completed(entry, tokenResult)) {
+                        listener.tokenRefreshed(entry.key, tokenResult);
+                    }
+                }
+
+                @Override
+                public void tokenFailed(Exception exception) {
+                    permits.release();
+                    failed(entry);
+                }
+            }
+        );
+
+        try {
+            entry.task.refresh(callback);
+        } catch (RuntimeException ex) {
+            callback.tokenFailed(ex);
+        }
+    }
+
+    private synchronized boolean completed(Entry entry, TokenResult tokenResult) {
+        entry.running = false;
+        if (entries.get(entry.key) != entry) {
+            return false;
+        }
+
+        if (tokenResult == null) {
+            entries.remove(entry.key);
+            return false;
+        }
+
+        if (entry.once || tokenResult.getExpiresOn() == null) {
+            entries.remove(entry.key);
+            return entry.once;
+        }
+
+        entry.backoffMillis = INITIAL_BACKOFF_MILLIS;
+        entry.expiresOn = tokenResult.getExpiresOn().getTime();
+        schedule(entry, delayUntilRefresh(entry));
+
+        return true;
+    }
+
+    private synchronized void failed(Entry entry) {
+        entry.running = false;
+        if (entries.get(entry.key) == entry) {
+            schedule(entry, nextBackoff(entry));
+        }
+    }
+
+    private void schedule(final Entry entry, long delayMillis) {
+        cancel(entry);
+        entry.future = scheduler.schedule(() -> run(entry), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancel(Entry entry) {
+        if (entry.future != null) {
+            entry.future.cancel(false);
+            entry.future = null;
+        }
+    }
+
+    private long delayUntilRefresh(Entry entry) {
+        if (entry.once) {
+            return MIN_DELAY_MILLIS;
+        }
+
+        long refreshAt = entry.expiresOn - entry.refreshAheadMillis - jitter(entry.refreshAheadMillis);
+
+        return Math.max(MIN_DELAY_MILLIS, refreshAt - System.currentTimeMillis());
+    }
+
+    private long nextBackoff(Entry entry) {
+        long backoffMillis = entry.backoffMillis;
+        entry.backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+
+        return backoffMillis + jitter(backoffMillis);
+    }
+
+    private long jitter(long millis) {
+        return (long) (random.nextDouble() * millis * JITTER_RATIO);
+    }
+}
@@ -0,0 +1,74 @@
+package nl.recognize.msauthplugin;
+
+import java.util.Date;
+
+public class TokenResult {
+
+    private String accessToken;
+    private String idToken;
+    private String[] scopes;
+    private Date expiresOn;
+    private String accessTokenHash;
+    private String accountId;
+    private String username;
+
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    public void setAccessToken(String accessToken) {
+        this.accessToken = accessToken;
+        this.accessTokenHash = null;
+    }
+
+    /**
+     * SHA-256 of the access token, computed once per result so cached results don't hash the token on every call.
+     */
+    public String getAccessTokenHash() {
+        if (accessTokenHash == null && accessToken != null) {
+            accessTokenHash = Hashing.sha256Hex(accessToken);
+        }
+
+        return accessTokenHash;
+    }
+
+    public String getIdToken() {
+        return idToken;
+    }
+
+    public void setIdToken(String idToken) {
+        this.idToken = idToken;
+    }
+
+    public String[] getScopes() {
+        return scopes;
+    }
+
+    public void setScopes(String[] scopes) {
+        this.scopes = scopes;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public Date getExpiresOn() {
+        return expiresOn;
+    }
+
+    public void setExpiresOn(Date expiresOn) {
+        this.expiresOn = expiresOn;
+    }
+}
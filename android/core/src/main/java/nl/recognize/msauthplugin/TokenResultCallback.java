@@ -2,4 +2,6 @@ package nl.recognize.msauthplugin;
 
 public interface TokenResultCallback {
     void tokenReceived(TokenResult tokenResult);
+
+    void tokenFailed(Exception exception);
 }
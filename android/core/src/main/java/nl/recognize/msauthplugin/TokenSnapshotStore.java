@@ -0,0 +1,244 @@
+package nl.recognize.msauthplugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Persists the last token per key, encrypted with AES/GCM, so it can be served right after a process restart. The
+ * snapshot key is bound to the file as associated data, so a snapshot can't be swapped in for another key. Snapshots
+ * are stored per group (the configuration and account the token belongs to), so signing out one account only removes
+ * its own snapshots.
+ */
+public class TokenSnapshotStore {
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final File directory;
+    private final KeyProvider keyProvider;
+
+    public TokenSnapshotStore(File directory, KeyProvider keyProvider) {
+        this.directory = directory;
+        this.keyProvider = keyProvider;
+    }
+
+    public void save(String group, String key, TokenResult tokenResult) throws IOException, GeneralSecurityException {
+        File groupDirectory = getGroupDirectory(group);
+        if (!groupDirectory.isDirectory() && !groupDirectory.mkdirs() && !groupDirectory.isDirectory()) {
+            throw new IOException("Unable to create token snapshot directory.");
+        }
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        // The IV is generated by the cipher, keys in the Android Keystore don't accept one from the caller
+        cipher.init(Cipher.ENCRYPT_MODE, keyProvider.getOrCreateKey());
+        cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+        byte[] encrypted = cipher.doFinal(serialize(tokenResult));
+        byte[] iv = cipher.getIV();
+
+        File snapshot = new File(groupDirectory, getFileName(key));
+        File temporary = File.createTempFile("token_", ".tmp", groupDirectory);
+        try {
+            try (OutputStream output = new FileOutputStream(temporary)) {
+                output.write(FORMAT_VERSION);
+                output.write(iv.length);
+                output.write(iv);
+                output.write(encrypted);
+            }
+
+            if (!temporary.renameTo(snapshot)) {
+                throw new IOException("Unable to write token snapshot.");
+            }
+        } finally {
+            if (temporary.exists() && !temporary.delete()) {
+                temporary.deleteOnExit();
+            }
+        }
+
+        // The same key may have been saved for another account before, e.g. after switching accounts
+        for (File otherSnapshot : findFiles(key)) {
+            if (!otherSnapshot.equals(snapshot)) {
+                deleteFile(otherSnapshot);
+            }
+        }
+    }
+
+    /**
+     * Returns the stored token, or null when there is none or it can't be read, e.g. because the key was replaced.
+     * Unreadable snapshots are deleted.
+     */
+    public TokenResult load(String key) {
+        List<File> snapshots = findFiles(key);
+        if (snapshots.isEmpty()) {
+            return null;
+        }
+
+        File snapshot = snapshots.get(0);
+        try {
+            byte[] contents = readFile(snapshot);
+            if (contents.length < 2 || contents[0] != FORMAT_VERSION || contents.length < 2 + (contents[1] & 0xFF)) {
+                throw new IOException("Invalid token snapshot.");
+            }
+
+            int ivLength = contents[1] & 0xFF;
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, keyProvider.getOrCreateKey(), new GCMParameterSpec(TAG_LENGTH_BITS, contents, 2, ivLength));
+            cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+
+            return deserialize(cipher.doFinal(contents, 2 + ivLength, contents.length - 2 - ivLength));
+        } catch (IOException | GeneralSecurityException ex) {
+            this.delete(key);
+
+            return null;
+        }
+    }
+
+    public void delete(String key) {
+        for (File snapshot : findFiles(key)) {
+            deleteFile(snapshot);
+        }
+    }
+
+    /**
+     * Deletes the snapshots of the group, leaving those of other groups in place.
+     */
+    public void deleteGroup(String group) {
+        File groupDirectory = getGroupDirectory(group);
+        File[] snapshots = groupDirectory.listFiles();
+        if (snapshots != null) {
+            for (File snapshot : snapshots) {
+                deleteFile(snapshot);
+            }
+        }
+
+        deleteFile(groupDirectory);
+    }
+
+    /**
+     * Snapshots are looked up by key before it is known which account will answer the request, so every group is
+     * checked. There is a group per signed in account, which keeps this short.
+     */
+    private List<File> findFiles(String key) {
+        List<File> snapshots = new ArrayList<>();
+        File[] groupDirectories = directory.listFiles();
+        if (groupDirectories == null) {
+            return snapshots;
+        }
+
+        String fileName = getFileName(key);
+        for (File groupDirectory : groupDirectories) {
+            File snapshot = new File(groupDirectory, fileName);
+            if (snapshot.isFile()) {
+                snapshots.add(snapshot);
+            }
+        }
+
+        return snapshots;
+    }
+
+    private File getGroupDirectory(String group) {
+        return new File(directory, "group_" + Hashing.sha256Hex(group));
+    }
+
+    private static String getFileName(String key) {
+        return "token_" + Hashing.sha256Hex(key) + ".bin";
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    // java.nio.file.Files is only available from API 26
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = input.read(buffer)) != -1) {
+                contents.write(buffer, 0, length);
+            }
+        }
+
+        return contents.toByteArray();
+    }
+
+    private static byte[] serialize(TokenResult tokenResult) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            writeString(output, tokenResult.getAccessToken());
+            writeString(output, tokenResult.getIdToken());
+            writeString(output, tokenResult.getAccountId());
+            writeString(output, tokenResult.getUsername());
+            output.writeLong(tokenResult.getExpiresOn() != null ? tokenResult.getExpiresOn().getTime() : -1);
+
+            String[] scopes = tokenResult.getScopes() != null ? tokenResult.getScopes() : new String[0];
+            output.writeInt(scopes.length);
+            for (String scope : scopes) {
+                writeString(output, scope);
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static TokenResult deserialize(byte[] data) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+            TokenResult tokenResult = new TokenResult();
+            tokenResult.setAccessToken(readString(input));
+            tokenResult.setIdToken(readString(input));
+            tokenResult.setAccountId(readString(input));
+            tokenResult.setUsername(readString(input));
+            long expiresOn = input.readLong();
+            tokenResult.setExpiresOn(expiresOn >= 0 ? new Date(expiresOn) : null);
+
+            String[] scopes = new String[input.readInt()];
+            for (int i = 0; i < scopes.length; i++) {
+                scopes[i] = readString(input);
+            }
+            tokenResult.setScopes(scopes);
+
+            return tokenResult;
+        }
+    }
+
+    // DataOutputStream.writeUTF is limited to 64KB, which tokens with many claims can come close to
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
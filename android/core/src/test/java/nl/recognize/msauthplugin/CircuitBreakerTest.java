@@ -0,0 +1,54 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+    @Test
+    void recordFailureExpectOpenAfterThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 1000);
+
+        circuitBreaker.recordFailure("authority", 0);
+        circuitBreaker.recordFailure("authority", 0);
+        assertTrue(circuitBreaker.allowRequest("authority", 0));
+
+        circuitBreaker.recordFailure("authority", 0);
+        assertTrue(circuitBreaker.isOpen("authority", 0));
+        assertFalse(circuitBreaker.allowRequest("authority", 999));
+        assertTrue(circuitBreaker.allowRequest("other-authority", 999));
+    }
+
+    @Test
+    void allowRequestAfterOpenPeriodExpectSingleTrial() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 1000);
+        circuitBreaker.recordFailure("authority", 0);
+
+        assertTrue(circuitBreaker.allowRequest("authority", 1000));
+        assertFalse(circuitBreaker.allowRequest("authority", 1000));
+
+        // A failed trial reopens the circuit, a successful one closes it
+        circuitBreaker.recordFailure("authority", 1000);
+        assertFalse(circuitBreaker.allowRequest("authority", 1500));
+        assertTrue(circuitBreaker.allowRequest("authority", 2000));
+        circuitBreaker.recordSuccess("authority");
+        assertTrue(circuitBreaker.allowRequest("authority", 2000));
+        assertTrue(circuitBreaker.allowRequest("authority", 2000));
+    }
+
+    @Test
+    void releaseTrialExpectNextTrialAllowed() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 1000);
+        circuitBreaker.recordFailure("authority", 0);
+
+        assertTrue(circuitBreaker.allowRequest("authority", 1000));
+        circuitBreaker.releaseTrial("authority");
+
+        // Still open, but no longer waiting for the abandoned trial
+        assertTrue(circuitBreaker.isOpen("authority", 500));
+        assertTrue(circuitBreaker.allowRequest("authority", 1000));
+        assertFalse(circuitBreaker.allowRequest("authority", 1000));
+    }
+}
@@ -0,0 +1,61 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class ClaimsCacheTest {
+
+    // {"sub":"subject"}
+    private static final String TOKEN = "eyJhbGciOiJub25lIn0.eyJzdWIiOiJzdWJqZWN0In0.";
+    // {"sub":"other"}
+    private static final String OTHER_TOKEN = "eyJhbGciOiJub25lIn0.eyJzdWIiOiJvdGhlciJ9.";
+
+    @Test
+    void getClaimsExpectDecodedOnce() throws Exception {
+        ClaimsCache cache = new ClaimsCache();
+
+        assertEquals("subject", cache.getClaims("account", TOKEN).getString("sub"));
+        assertEquals("subject", cache.getClaims("account", TOKEN).getString("sub"));
+        assertNull(cache.getClaims("account", null));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void getClaimsOfSameTokenExpectHashedOnlyForNewInstance() throws Exception {
+        final int[] keys = new int[1];
+        ClaimsCache cache = new ClaimsCache() {
+            @Override
+            String createKey(String token) {
+                keys[0]++;
+                return super.createKey(token);
+            }
+        };
+
+        cache.getClaims("account", TOKEN);
+        cache.getClaims("account", TOKEN);
+        assertEquals(1, keys[0]);
+
+        // An equal token from another instance is still served from the cache
+        assertEquals("subject", cache.getClaims("account", new String(TOKEN)).getString("sub"));
+        assertEquals(2, keys[0]);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void removeAccountExpectOtherAccountsKept() throws Exception {
+        ClaimsCache cache = new ClaimsCache();
+        cache.getClaims("account", TOKEN);
+        cache.getClaims("other-account", OTHER_TOKEN);
+
+        cache.removeAccount("account");
+
+        assertEquals(1, cache.size());
+        assertEquals("other", cache.getClaims("other-account", OTHER_TOKEN).getString("sub"));
+        assertEquals(1, cache.getHitCount());
+    }
+}
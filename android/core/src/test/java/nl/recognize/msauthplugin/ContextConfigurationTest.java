@@ -0,0 +1,23 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class ContextConfigurationTest {
+
+    @Test
+    void getFingerprintExpectDistinctForNullAndSeparatorValues() {
+        assertEquals(create("client", null, null).getFingerprint(), create("client", null, null).getFingerprint());
+
+        // A missing value differs from the text "null", and a separator can't shift a value into the next field
+        assertNotEquals(create("client", null, null).getFingerprint(), create("client", "null", null).getFingerprint());
+        assertNotEquals(create("client", "a|b", null).getFingerprint(), create("client", "a", "b").getFingerprint());
+        assertNotEquals(create("client|a", null, null).getFingerprint(), create("client", "a", null).getFingerprint());
+    }
+
+    private static ContextConfiguration create(String clientId, String tenant, String authorityUrl) {
+        return new ContextConfiguration(clientId, null, tenant, AuthorityType.AAD, authorityUrl, "key-hash", false, AccountMode.SINGLE);
+    }
+}
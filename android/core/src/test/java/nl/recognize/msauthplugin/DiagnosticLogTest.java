@@ -0,0 +1,89 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class DiagnosticLogTest {
+
+    private final List<String> forwarded = new ArrayList<>();
+    private final CoreLogger.Sink platformSink = new CoreLogger.Sink() {
+        @Override
+        public boolean isLoggable(CoreLogger.Level level) {
+            return true;
+        }
+
+        @Override
+        public void log(CoreLogger.Level level, String source, String message, Throwable throwable) {
+            forwarded.add(level.getKey() + " " + message);
+        }
+    };
+
+    @Test
+    void logExpectOnlyLevelAndUpForwardedButInfoAndUpBuffered() {
+        DiagnosticLog log = new DiagnosticLog(platformSink, 10, 1000);
+
+        log.log(0, CoreLogger.Level.DEBUG, "plugin", "debug message", null);
+        log.log(0, CoreLogger.Level.INFO, "plugin", "info message", null);
+        log.log(0, CoreLogger.Level.ERROR, "msal", "error message", new IllegalStateException("broken"));
+
+        assertEquals(1, forwarded.size());
+        assertEquals("error error message", forwarded.get(0));
+
+        List<DiagnosticLog.Entry> entries = log.getEntries();
+        assertEquals(2, entries.size());
+        assertEquals("info message", entries.get(0).getMessage());
+        assertNull(entries.get(0).getError());
+        assertEquals("msal", entries.get(1).getSource());
+        assertEquals("java.lang.IllegalStateException: broken", entries.get(1).getError());
+
+        log.setLevel(CoreLogger.Level.DEBUG);
+        log.log(0, CoreLogger.Level.DEBUG, "plugin", "debug message", null);
+        assertEquals(3, log.getEntries().size());
+        assertEquals("debug debug message", forwarded.get(1));
+    }
+
+    @Test
+    void repeatedMessagesExpectCoalescedEntryAndSampledForwarding() {
+        DiagnosticLog log = new DiagnosticLog(platformSink, 10, 1000);
+
+        for (int i = 0; i < 5; i++) {
+            log.log(i * 100, CoreLogger.Level.WARN, "plugin", "retrying", null);
+        }
+        log.log(1200, CoreLogger.Level.WARN, "plugin", "retrying", null);
+
+        List<DiagnosticLog.Entry> entries = log.getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(6, entries.get(0).getCount());
+        assertEquals(0, entries.get(0).getTimestamp());
+        assertEquals(1200, entries.get(0).getLastTimestamp());
+
+        assertEquals(2, forwarded.size());
+        assertEquals("warn retrying", forwarded.get(0));
+        assertEquals("warn retrying (repeated 4 more times)", forwarded.get(1));
+    }
+
+    @Test
+    void logBeyondCapacityExpectOldestEntriesDropped() {
+        DiagnosticLog log = new DiagnosticLog(platformSink, 3, 1000);
+        log.setLevel(CoreLogger.Level.NONE);
+
+        for (int i = 0; i < 5; i++) {
+            log.log(i, CoreLogger.Level.INFO, "plugin", "message " + i, null);
+        }
+
+        List<DiagnosticLog.Entry> entries = log.getEntries();
+        assertEquals(3, entries.size());
+        assertEquals("message 2", entries.get(0).getMessage());
+        assertEquals("message 4", entries.get(2).getMessage());
+        assertEquals(2, log.getDroppedCount());
+        assertTrue(forwarded.isEmpty());
+
+        log.clear();
+        assertTrue(log.getEntries().isEmpty());
+    }
+}
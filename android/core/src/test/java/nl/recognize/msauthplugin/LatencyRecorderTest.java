@@ -0,0 +1,34 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class LatencyRecorderTest {
+
+    @Test
+    void recordExpectPercentilesWithinBucketWidth() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (int i = 1; i <= 100; i++) {
+            recorder.record(TimeUnit.MILLISECONDS.toNanos(i), i > 98);
+        }
+
+        assertEquals(100, recorder.getCount());
+        assertEquals(2, recorder.getErrorCount());
+        assertEquals(50.5, recorder.getMeanMillis(), 0.01);
+        assertEquals(100, recorder.getMaxMillis(), 0.01);
+        assertWithinBucketWidth(50, recorder.getPercentileMillis(50));
+        assertWithinBucketWidth(95, recorder.getPercentileMillis(95));
+        assertWithinBucketWidth(99, recorder.getPercentileMillis(99));
+
+        recorder.reset();
+        assertEquals(0, recorder.getCount());
+        assertEquals(0, recorder.getPercentileMillis(99), 0.01);
+    }
+
+    private void assertWithinBucketWidth(double expectedMillis, double actualMillis) {
+        assertTrue(actualMillis >= expectedMillis && actualMillis <= expectedMillis * 1.25, "Expected ~" + expectedMillis + " but was " + actualMillis);
+    }
+}
@@ -0,0 +1,31 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MsalConfigFileTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void writeOtherConfigurationExpectStaleConfigFilesDeleted() throws Exception {
+        File staleConfig = MsalConfigFile.write(directory, new JSONObject("{\"client_id\":\"stale\"}"));
+        File recentConfig = MsalConfigFile.write(directory, new JSONObject("{\"client_id\":\"recent\"}"));
+        assertTrue(staleConfig.setLastModified(0));
+
+        File config = MsalConfigFile.write(directory, new JSONObject("{\"client_id\":\"current\"}"));
+
+        // A recently used file may still be read by MSAL, only the stale one is gone
+        assertTrue(config.isFile());
+        assertTrue(recentConfig.isFile());
+        assertFalse(staleConfig.exists());
+        assertEquals(2, directory.list().length);
+    }
+}
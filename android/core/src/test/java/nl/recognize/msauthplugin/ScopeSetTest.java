@@ -0,0 +1,33 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ScopeSetTest {
+
+    @Test
+    void ofExpectSameInternedSetRegardlessOfOrderCasingAndResourcePrefix() {
+        ScopeSet scopeSet = ScopeSet.of("User.Read", " api://my-api/Access ", "");
+
+        assertSame(scopeSet, ScopeSet.of("api://my-api/access", "https://graph.microsoft.com/user.read"));
+        assertSame(scopeSet, ScopeSet.of("00000003-0000-0000-c000-000000000000/User.Read", "API://MY-API/ACCESS"));
+        assertEquals("api://my-api/access https://graph.microsoft.com/user.read", scopeSet.getKey());
+        assertEquals("openid", ScopeSet.of("OpenID").getKey());
+    }
+
+    @Test
+    void containsAllExpectSupersetOnly() {
+        ScopeSet granted = ScopeSet.of("openid", "profile", "User.Read", "Mail.Read");
+
+        assertTrue(granted.containsAll(ScopeSet.of("user.read")));
+        assertTrue(granted.containsAll(ScopeSet.of("Mail.Read", "https://graph.microsoft.com/User.Read")));
+        assertTrue(granted.containsAll(granted));
+        assertFalse(granted.containsAll(ScopeSet.of("User.Read", "Calendars.Read")));
+        assertFalse(granted.containsAll(ScopeSet.of("api://my-api/User.Read")));
+        assertFalse(ScopeSet.of("User.Read").containsAll(granted));
+    }
+}
@@ -0,0 +1,61 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+class TokenCacheTest {
+
+    private static final String NAMESPACE = "client-a";
+    private static final String AUTHORITY = "https://login.example.com/tenant";
+
+    @Test
+    void getWithSubsetOfGrantedScopesExpectLongestValidToken() {
+        TokenCache tokenCache = new TokenCache();
+        TokenResult shortLived = createTokenResult(1000, "openid", "profile", "User.Read", "Mail.Read");
+        TokenResult longLived = createTokenResult(5000, "User.Read", "Mail.Read", "Calendars.Read");
+        tokenCache.put(NAMESPACE, "account", AUTHORITY, ScopeSet.of("User.Read", "Mail.Read"), shortLived);
+        tokenCache.put(NAMESPACE, "account", AUTHORITY, ScopeSet.of("Calendars.Read"), longLived);
+
+        assertSame(shortLived, tokenCache.get(NAMESPACE, "account", AUTHORITY, ScopeSet.of("mail.read", "user.read"), 0, 0));
+        assertSame(longLived, tokenCache.get(NAMESPACE, "account", AUTHORITY, ScopeSet.of("https://graph.microsoft.com/Mail.Read"), 0, 0));
+        assertSame(longLived, tokenCache.get(NAMESPACE, "account", AUTHORITY, ScopeSet.of("User.Read"), 0, 2000));
+        assertEquals(3, tokenCache.getHitCount());
+        assertEquals(2, tokenCache.getSupersetHitCount());
+
+        assertNull(tokenCache.get(NAMESPACE, "account", AUTHORITY, ScopeSet.of("User.Read", "Files.Read"), 0, 0));
+        assertNull(tokenCache.get(NAMESPACE, "other-account", AUTHORITY, ScopeSet.of("User.Read"), 0, 0));
+        assertNull(tokenCache.get(NAMESPACE, "account", "https://login.example.com/other", ScopeSet.of("User.Read"), 0, 0));
+        assertNull(tokenCache.get(NAMESPACE, "account", AUTHORITY, ScopeSet.of("User.Read"), 4000, 2000));
+        assertNull(tokenCache.get("client-b", "account", AUTHORITY, ScopeSet.of("User.Read"), 0, 0));
+        assertEquals(5, tokenCache.getMissCount());
+
+        // Signing out of another application keeps the tokens of this one
+        tokenCache.removeAccount("client-b", "account");
+        assertEquals(2, tokenCache.size());
+        tokenCache.removeAccount(NAMESPACE, "account");
+        assertEquals(0, tokenCache.size());
+    }
+
+    @Test
+    void getWithOnlyOpenIdConnectScopesExpectNoSupersetMatch() {
+        TokenCache tokenCache = new TokenCache();
+        tokenCache.put(NAMESPACE, "account", AUTHORITY, ScopeSet.of("api://backend/access"), createTokenResult(5000, "openid", "profile", "api://backend/access"));
+
+        // The cached token is for another resource, even though it was granted the requested scopes as well
+        assertNull(tokenCache.get(NAMESPACE, "account", AUTHORITY, ScopeSet.of("openid", "profile"), 0, 0));
+        assertNull(tokenCache.get(NAMESPACE, "account", AUTHORITY, ScopeSet.of(), 0, 0));
+        assertEquals(0, tokenCache.getSupersetHitCount());
+    }
+
+    private static TokenResult createTokenResult(long expiresOn, String... scopes) {
+        TokenResult tokenResult = new TokenResult();
+        tokenResult.setAccessToken("access-token-" + expiresOn);
+        tokenResult.setScopes(scopes);
+        tokenResult.setExpiresOn(new Date(expiresOn));
+        return tokenResult;
+    }
+}
@@ -0,0 +1,93 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TokenEventsTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final TokenEvents tokenEvents = new TokenEvents(
+        scheduler,
+        50,
+        new TokenEvents.Listener() {
+            @Override
+            public void tokenRefreshed(TokenResult tokenResult) {
+                events.add("tokenRefreshed " + tokenResult.getAccessToken());
+            }
+
+            @Override
+            public void tokenExpiring(TokenResult tokenResult) {
+                events.add("tokenExpiring " + tokenResult.getAccessToken());
+            }
+
+            @Override
+            public void accountChanged(String accountId, String username, String priorAccountId, String priorUsername) {
+                events.add("accountChanged " + priorAccountId + " " + accountId);
+            }
+
+            @Override
+            public void signedOut(String accountId, String username) {
+                events.add("signedOut " + accountId);
+            }
+        },
+        new CoreLogger(null)
+    );
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void burstOfRenewedTokensExpectSingleEventPerKey() throws InterruptedException {
+        tokenEvents.tokenIssued("graph", createTokenResult("account", "graph-1", 3600_000), 0);
+        tokenEvents.tokenIssued("graph", createTokenResult("account", "graph-1", 3600_000), 0);
+        tokenEvents.tokenIssued("api", createTokenResult("account", "api-1", 3600_000), 0);
+        for (int i = 2; i <= 5; i++) {
+            tokenEvents.tokenIssued("graph", createTokenResult("account", "graph-" + i, 3600_000), 0);
+        }
+        tokenEvents.tokenRefreshed("api", createTokenResult("account", "api-2", 3600_000));
+
+        Thread.sleep(300);
+        assertEquals(2, events.size());
+        assertTrue(events.contains("tokenRefreshed graph-5"));
+        assertTrue(events.contains("tokenRefreshed api-2"));
+        assertEquals(3, tokenEvents.getCoalescedCount());
+    }
+
+    @Test
+    void tokenWithinExpiryMarginExpectExpiringUnlessSignedOut() throws InterruptedException {
+        tokenEvents.tokenIssued("graph", createTokenResult("account", "graph-1", 1000), 900);
+        tokenEvents.tokenIssued("api", createTokenResult("other-account", "api-1", 1000), 900);
+        tokenEvents.signedOut("other-account", "other@example.com");
+        tokenEvents.accountChanged("authority", "account", "user@example.com", "other-account", "other@example.com");
+
+        Thread.sleep(500);
+        assertEquals(3, events.size());
+        assertTrue(events.contains("tokenExpiring graph-1"));
+        assertTrue(events.contains("signedOut other-account"));
+        assertTrue(events.contains("accountChanged other-account account"));
+
+        tokenEvents.stop();
+        tokenEvents.tokenRefreshed("graph", createTokenResult("account", "graph-2", 1000));
+        Thread.sleep(100);
+        assertEquals(3, events.size());
+    }
+
+    private static TokenResult createTokenResult(String accountId, String accessToken, long lifetimeMillis) {
+        TokenResult tokenResult = new TokenResult();
+        tokenResult.setAccountId(accountId);
+        tokenResult.setAccessToken(accessToken);
+        tokenResult.setExpiresOn(new Date(System.currentTimeMillis() + lifetimeMillis));
+        return tokenResult;
+    }
+}
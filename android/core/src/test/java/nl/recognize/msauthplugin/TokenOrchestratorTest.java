@@ -0,0 +1,410 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TokenOrchestratorTest {
+
+    private static final String AUTHORITY = "https://login.example.com/tenant";
+
+    private final TokenCache tokenCache = new TokenCache();
+    private final Metrics metrics = new Metrics();
+    private final CoreLogger logger = new CoreLogger(null);
+    private final PendingRequests pendingRequests = new PendingRequests();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final TokenOrchestrator orchestrator = new TokenOrchestrator(
+        tokenCache,
+        new TokenPipeline(tokenCache, new SingleFlight(), metrics, logger),
+        pendingRequests,
+        new RetryExecutor(
+            new CircuitBreaker(5, 30000),
+            metrics,
+            new RetryExecutor.ErrorClassifier() {
+                @Override
+                public boolean isTransient(Exception ex) {
+                    return ex instanceof IOException;
+                }
+
+                @Override
+                public Exception createCircuitOpenException(String authority) {
+                    return new IOException("Circuit open.");
+                }
+            },
+            logger
+        ),
+        metrics,
+        scheduler,
+        Runnable::run,
+        logger
+    );
+    private final FakeTokenClient client = new FakeTokenClient();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void acquireWithInteractionRequiredExpectPromptThenCachedToken() throws Exception {
+        client.interactionRequired = true;
+        List<TokenResult> received = new ArrayList<>();
+
+        acquire(received);
+
+        assertEquals(1, client.silentCount);
+        assertEquals(1, client.interactiveCount);
+        assertEquals("interactive-token", received.get(0).getAccessToken());
+
+        // The prompted token is cached, so the next request needs neither flow
+        acquire(received);
+
+        assertEquals(1, client.silentCount);
+        assertEquals(1, client.interactiveCount);
+        assertEquals("interactive-token", received.get(1).getAccessToken());
+    }
+
+    @Test
+    void acquireWithHangingSilentFlowExpectTimeoutAndWorkerReleased() throws Exception {
+        client.silentHangMillis = 30000;
+        final List<Exception> failures = new ArrayList<>();
+        long startTime = System.nanoTime();
+
+        orchestrator.acquire(
+            client,
+            "account-id",
+            Arrays.asList("scope"),
+            "SELECT_ACCOUNT",
+            0,
+            50,
+            new RetryPolicy(1, 0, 0),
+            false,
+            null,
+            monitor(),
+            pendingRequests.register(
+                null,
+                ScopeSet.of("scope").getKey(),
+                new TokenResultCallback() {
+                    @Override
+                    public void tokenReceived(TokenResult tokenResult) {
+                        throw new AssertionError("Unexpected token");
+                    }
+
+                    @Override
+                    public void tokenFailed(Exception exception) {
+                        failures.add(exception);
+                    }
+                }
+            )
+        );
+
+        // The worker running the silent flow is interrupted instead of waiting for it, and can take on the next task
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof TimeoutException);
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertEquals(0, client.interactiveCount);
+    }
+
+    @Test
+    void acquireBatchExpectSinglePromptForScopeSetsNeedingInteraction() throws Exception {
+        client.interactionRequired = true;
+        Map<String, List<String>> requests = new LinkedHashMap<>();
+        requests.put("graph", Collections.singletonList("User.Read"));
+        requests.put("api", Collections.singletonList("api://backend/access"));
+        final List<Map<String, TokenResult>> completed = new ArrayList<>();
+        final PendingRequests.Request batchRequest = registerBatch(new ArrayList<Exception>());
+
+        orchestrator.acquireBatch(client, null, requests, "SELECT_ACCOUNT", 0, 0, new RetryPolicy(1, 0, 0), monitor(), batchRequest, (results, errors) -> {
+            assertTrue(errors.isEmpty());
+            completed.add(results);
+            batchRequest.tokenReceived(null);
+        });
+
+        assertEquals(1, client.interactiveCount);
+        assertEquals(Collections.singletonList("api://backend/access"), client.otherScopes);
+        assertEquals(1, completed.size());
+        assertEquals("interactive-token", completed.get(0).get("graph").getAccessToken());
+        assertEquals("silent-token", completed.get(0).get("api").getAccessToken());
+        assertEquals(0, pendingRequests.size());
+    }
+
+    @Test
+    void acquireBatchExpectCachedTokensAndRetriedFailures() throws Exception {
+        tokenCache.put("namespace", "account-id", AUTHORITY, ScopeSet.of("User.Read"), createTokenResult("cached-token", Arrays.asList("User.Read")));
+        client.transientFailures = 1;
+        Map<String, List<String>> requests = new LinkedHashMap<>();
+        requests.put("graph", Collections.singletonList("User.Read"));
+        requests.put("api", Collections.singletonList("api://backend/access"));
+        final List<Map<String, TokenResult>> completed = new ArrayList<>();
+        final PendingRequests.Request batchRequest = registerBatch(new ArrayList<Exception>());
+
+        orchestrator.acquireBatch(client, null, requests, "SELECT_ACCOUNT", 0, 0, new RetryPolicy(2, 0, 0), monitor(), batchRequest, (results, errors) -> {
+            assertTrue(errors.isEmpty());
+            completed.add(results);
+            batchRequest.tokenReceived(null);
+        });
+
+        // Scope sets go through the same pipeline as a single request, so the cached one isn't fetched again
+        assertEquals("cached-token", completed.get(0).get("graph").getAccessToken());
+        assertEquals("silent-token", completed.get(0).get("api").getAccessToken());
+        assertEquals(2, client.silentCount);
+        assertEquals(1, metrics.get(Metrics.Counter.RETRY));
+        assertEquals(0, client.interactiveCount);
+    }
+
+    @Test
+    void cancelledBatchExpectPromptReleased() throws Exception {
+        client.interactionRequired = true;
+        client.promptHeld = true;
+        List<Exception> failures = new ArrayList<>();
+        PendingRequests.Request batchRequest = registerBatch(failures);
+
+        orchestrator.acquireBatch(
+            client,
+            null,
+            Collections.singletonMap("graph", Collections.singletonList("User.Read")),
+            "SELECT_ACCOUNT",
+            0,
+            0,
+            new RetryPolicy(1, 0, 0),
+            monitor(),
+            batchRequest,
+            (results, errors) -> failures.add(errors.get("graph"))
+        );
+        assertEquals(2, pendingRequests.size());
+
+        // Cancelling the batch by its id releases the request of the prompt that is still open as well
+        assertEquals(1, pendingRequests.cancel("batch", null));
+        assertEquals(0, pendingRequests.size());
+        assertEquals(2, failures.size());
+        assertTrue(failures.get(0) instanceof CancellationException);
+        assertTrue(failures.get(1) instanceof CancellationException);
+    }
+
+    @Test
+    void refreshTaskWithInteractionRequiredExpectNullTokenAndAccountInvalidated() {
+        client.interactionRequired = true;
+        final List<Object> outcomes = new ArrayList<>();
+
+        orchestrator
+            .createRefreshTask(client, "account-id", Arrays.asList("scope"), new RetryPolicy(1, 0, 0), monitor())
+            .refresh(
+                new TokenResultCallback() {
+                    @Override
+                    public void tokenReceived(TokenResult tokenResult) {
+                        outcomes.add(tokenResult);
+                    }
+
+                    @Override
+                    public void tokenFailed(Exception exception) {
+                        outcomes.add(exception);
+                    }
+                }
+            );
+
+        assertEquals(1, outcomes.size());
+        assertNull(outcomes.get(0));
+        assertTrue(client.forceRefresh);
+        assertEquals(1, client.invalidateCount);
+    }
+
+    @Test
+    void refreshTaskAfterAccountChangedExpectNullTokenWithoutRefresh() {
+        final List<Object> outcomes = new ArrayList<>();
+
+        // The client answers with its current account, which isn't the one the token was tracked for
+        orchestrator
+            .createRefreshTask(client, "prior-account-id", Arrays.asList("scope"), new RetryPolicy(1, 0, 0), monitor())
+            .refresh(
+                new TokenResultCallback() {
+                    @Override
+                    public void tokenReceived(TokenResult tokenResult) {
+                        outcomes.add(tokenResult);
+                    }
+
+                    @Override
+                    public void tokenFailed(Exception exception) {
+                        outcomes.add(exception);
+                    }
+                }
+            );
+
+        assertEquals(1, outcomes.size());
+        assertNull(outcomes.get(0));
+        assertEquals(0, client.silentCount);
+        assertEquals(0, tokenCache.size());
+    }
+
+    private void acquire(final List<TokenResult> received) throws Exception {
+        orchestrator.acquire(
+            client,
+            "account-id",
+            Arrays.asList("scope"),
+            "SELECT_ACCOUNT",
+            0,
+            0,
+            new RetryPolicy(1, 0, 0),
+            false,
+            null,
+            monitor(),
+            pendingRequests.register(
+                null,
+                ScopeSet.of("scope").getKey(),
+                new TokenResultCallback() {
+                    @Override
+                    public void tokenReceived(TokenResult tokenResult) {
+                        received.add(tokenResult);
+                    }
+
+                    @Override
+                    public void tokenFailed(Exception exception) {
+                        throw new AssertionError(exception);
+                    }
+                }
+            )
+        );
+    }
+
+    private PendingRequests.Request registerBatch(final List<Exception> failures) {
+        return pendingRequests.register(
+            "batch",
+            null,
+            new TokenResultCallback() {
+                @Override
+                public void tokenReceived(TokenResult tokenResult) {}
+
+                @Override
+                public void tokenFailed(Exception exception) {
+                    failures.add(exception);
+                }
+            }
+        );
+    }
+
+    private static ConnectivityMonitor monitor() {
+        return new ConnectivityMonitor() {
+            @Override
+            public boolean isConnected() {
+                return true;
+            }
+
+            @Override
+            public void start(Listener listener) {}
+
+            @Override
+            public void stop() {}
+        };
+    }
+
+    private static TokenResult createTokenResult(String accessToken, List<String> scopes) {
+        TokenResult tokenResult = new TokenResult();
+        tokenResult.setAccessToken(accessToken);
+        tokenResult.setAccountId("account-id");
+        tokenResult.setScopes(scopes.toArray(new String[0]));
+        tokenResult.setExpiresOn(new Date(System.currentTimeMillis() + 3600_000));
+
+        return tokenResult;
+    }
+
+    /**
+     * Requires interaction for silent requests until the user signed in, after which all scopes are granted. A held
+     * prompt is left open.
+     */
+    private static class FakeTokenClient implements TokenClient {
+
+        private final Account account = new Account() {
+            @Override
+            public String getId() {
+                return "account-id";
+            }
+
+            @Override
+            public String getUsername() {
+                return "user@example.com";
+            }
+        };
+        private boolean interactionRequired;
+        private long silentHangMillis;
+        private int transientFailures;
+        private boolean promptHeld;
+        private boolean forceRefresh;
+        private int silentCount;
+        private int interactiveCount;
+        private int invalidateCount;
+        private List<String> otherScopes;
+
+        @Override
+        public String getNamespace() {
+            return "namespace";
+        }
+
+        @Override
+        public String getAuthority() {
+            return AUTHORITY;
+        }
+
+        @Override
+        public Account loadAccount(String accountId) {
+            return account;
+        }
+
+        @Override
+        public TokenResult acquireTokenSilently(Account account, List<String> scopes, boolean forceRefresh) throws Exception {
+            silentCount++;
+            this.forceRefresh = forceRefresh;
+            if (silentHangMillis > 0) {
+                Thread.sleep(silentHangMillis);
+            }
+            if (interactionRequired) {
+                throw new InteractionRequiredException("Interaction required.", null);
+            }
+            if (transientFailures > 0) {
+                transientFailures--;
+                throw new IOException("Service unavailable.");
+            }
+
+            return createTokenResult("silent-token", scopes);
+        }
+
+        @Override
+        public void acquireTokenInteractively(
+            Account account,
+            List<String> scopes,
+            List<String> otherScopes,
+            String prompt,
+            TokenResultCallback callback
+        ) {
+            interactiveCount++;
+            this.otherScopes = otherScopes;
+            if (promptHeld) {
+                return;
+            }
+
+            interactionRequired = false;
+            callback.tokenReceived(createTokenResult("interactive-token", scopes));
+        }
+
+        @Override
+        public void invalidateAccount() {
+            invalidateCount++;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class TokenPipelineTest {
+
+    private static final String AUTHORITY = "https://login.example.com/tenant";
+    private static final ScopeSet SCOPES = ScopeSet.of("scope");
+
+    private final TokenCache tokenCache = new TokenCache();
+    private final SingleFlight inFlightRequests = new SingleFlight();
+    private final Metrics metrics = new Metrics();
+    private final PendingRequests pendingRequests = new PendingRequests();
+    private final TokenPipeline pipeline = new TokenPipeline(tokenCache, inFlightRequests, metrics, new CoreLogger(null));
+    private volatile boolean connected = true;
+
+    @Test
+    void racingAcquiresExpectSingleFetch() throws Exception {
+        int threads = 16;
+        int rounds = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                final AtomicInteger fetches = new AtomicInteger();
+                final AtomicReference<OneShotTokenResultCallback> fetchCallback = new AtomicReference<>();
+                final CyclicBarrier barrier = new CyclicBarrier(threads);
+                final CountDownLatch settled = new CountDownLatch(threads);
+                final List<TokenResult> received = Collections.synchronizedList(new ArrayList<>());
+                final String namespace = "round-" + round;
+
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(
+                        executor.submit(() -> {
+                            barrier.await();
+                            pipeline.acquire(
+                                namespace,
+                                "",
+                                "account",
+                                AUTHORITY,
+                                SCOPES,
+                                0,
+                                monitor(),
+                                register(received, settled),
+                                callback -> {
+                                    fetches.incrementAndGet();
+                                    fetchCallback.set(callback);
+                                }
+                            );
+
+                            return null;
+                        })
+                    );
+                }
+                for (Future<?> future : futures) {
+                    future.get(5, TimeUnit.SECONDS);
+                }
+
+                // Every caller joined before the fetch completes, so they all share its result
+                fetchCallback.get().tokenReceived(createTokenResult("token-" + round));
+
+                assertTrue(settled.await(5, TimeUnit.SECONDS));
+                assertEquals(1, fetches.get());
+                for (TokenResult tokenResult : received) {
+                    assertEquals("token-" + round, tokenResult.getAccessToken());
+                }
+                assertEquals(0, inFlightRequests.size());
+                assertEquals(0, pendingRequests.size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void cancelledCallerExpectNextAcquireToFetchAgain() {
+        List<OneShotTokenResultCallback> fetchCallbacks = new ArrayList<>();
+        List<TokenResult> received = new ArrayList<>();
+        CountDownLatch settled = new CountDownLatch(2);
+
+        PendingRequests.Request cancelled = register(received, settled);
+        pipeline.acquire("namespace", "", "account", AUTHORITY, SCOPES, 0, monitor(), cancelled, fetchCallbacks::add);
+        assertEquals(1, pendingRequests.cancel(null, SCOPES.getKey()));
+        assertEquals(0, inFlightRequests.size());
+
+        pipeline.acquire("namespace", "", "account", AUTHORITY, SCOPES, 0, monitor(), register(received, settled), fetchCallbacks::add);
+        assertEquals(2, fetchCallbacks.size());
+
+        // The abandoned fetch completing late doesn't reach the new caller
+        fetchCallbacks.get(0).tokenReceived(createTokenResult("late-token"));
+        assertTrue(received.isEmpty());
+
+        fetchCallbacks.get(1).tokenReceived(createTokenResult("token"));
+        assertEquals(1, received.size());
+        assertEquals("token", received.get(0).getAccessToken());
+    }
+
+    @Test
+    void offlineExpectValidTokenOrFailureWithoutFetch() {
+        tokenCache.put("namespace", "account", AUTHORITY, SCOPES, createTokenResult("token"));
+        connected = false;
+        List<TokenResult> received = new ArrayList<>();
+        AtomicInteger fetches = new AtomicInteger();
+
+        // Valid for an hour, which is within this margin
+        pipeline.acquire("namespace", "", "account", AUTHORITY, SCOPES, 7200_000, monitor(), register(received, new CountDownLatch(1)), callback ->
+            fetches.incrementAndGet()
+        );
+        pipeline.acquire("namespace", "", null, AUTHORITY, SCOPES, 0, monitor(), register(received, new CountDownLatch(1)), callback ->
+            fetches.incrementAndGet()
+        );
+
+        assertEquals(1, received.size());
+        assertEquals("token", received.get(0).getAccessToken());
+        assertEquals(0, fetches.get());
+        assertEquals(2, metrics.get(Metrics.Counter.OFFLINE));
+    }
+
+    private PendingRequests.Request register(final List<TokenResult> received, final CountDownLatch settled) {
+        return pendingRequests.register(
+            null,
+            SCOPES.getKey(),
+            new TokenResultCallback() {
+                @Override
+                public void tokenReceived(TokenResult tokenResult) {
+                    received.add(tokenResult);
+                    settled.countDown();
+                }
+
+                @Override
+                public void tokenFailed(Exception exception) {
+                    settled.countDown();
+                }
+            }
+        );
+    }
+
+    private ConnectivityMonitor monitor() {
+        return new ConnectivityMonitor() {
+            @Override
+            public boolean isConnected() {
+                return connected;
+            }
+
+            @Override
+            public void start(Listener listener) {}
+
+            @Override
+            public void stop() {}
+        };
+    }
+
+    private static TokenResult createTokenResult(String accessToken) {
+        TokenResult tokenResult = new TokenResult();
+        tokenResult.setAccessToken(accessToken);
+        tokenResult.setScopes(new String[] { "scope" });
+        tokenResult.setExpiresOn(new Date(System.currentTimeMillis() + 3600_000));
+
+        return tokenResult;
+    }
+}
@@ -0,0 +1,125 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TokenRefresherTest {
+
+    ScheduledExecutorService scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void trackExpectRefreshBeforeExpiry() throws InterruptedException {
+        CountDownLatch refreshed = new CountDownLatch(1);
+        TokenRefresher refresher = new TokenRefresher(scheduler, 1, (key, tokenResult) -> {
+            assertEquals("key", key);
+            assertEquals("refreshed-token", tokenResult.getAccessToken());
+            refreshed.countDown();
+        });
+
+        refresher.track(
+            "key",
+            "group",
+            callback -> callback.tokenReceived(createTokenResult("refreshed-token", 3600_000)),
+            createTokenResult("access-token", 1000),
+            60_000
+        );
+
+        assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, refresher.size());
+
+        refresher.untrackGroup("group");
+        assertEquals(0, refresher.size());
+    }
+
+    @Test
+    void trackWhilePausedExpectNoRefresh() throws InterruptedException {
+        AtomicInteger refreshCount = new AtomicInteger();
+        TokenRefresher refresher = new TokenRefresher(scheduler, 1, (key, tokenResult) -> refreshCount.incrementAndGet());
+
+        refresher.setPaused(true);
+        refresher.track(
+            "key",
+            "group",
+            callback -> callback.tokenReceived(createTokenResult("refreshed-token", 3600_000)),
+            createTokenResult("access-token", 1000),
+            60_000
+        );
+
+        Thread.sleep(TokenRefresher.MIN_DELAY_MILLIS + 500);
+        assertEquals(0, refreshCount.get());
+    }
+
+    @Test
+    void refreshRequiringInteractionExpectUntracked() throws InterruptedException {
+        CountDownLatch attempted = new CountDownLatch(1);
+        TokenRefresher refresher = new TokenRefresher(scheduler, 1, (key, tokenResult) -> {});
+
+        refresher.track(
+            "key",
+            "group",
+            callback -> {
+                callback.tokenReceived(null);
+                attempted.countDown();
+            },
+            createTokenResult("access-token", 1000),
+            60_000
+        );
+
+        assertTrue(attempted.await(5, TimeUnit.SECONDS));
+        assertFalse(refresher.size() > 0);
+    }
+
+    @Test
+    void queueWhilePausedExpectSingleRefreshOnResume() throws InterruptedException {
+        CountDownLatch refreshed = new CountDownLatch(1);
+        AtomicInteger refreshCount = new AtomicInteger();
+        TokenRefresher refresher = new TokenRefresher(scheduler, 1, (key, tokenResult) -> {
+            assertEquals("refreshed-token", tokenResult.getAccessToken());
+            refreshed.countDown();
+        });
+
+        refresher.setPaused(true);
+        refresher.queue("key", "group", callback -> {
+            refreshCount.incrementAndGet();
+            callback.tokenReceived(createTokenResult("refreshed-token", 3600_000));
+        });
+        assertEquals(1, refresher.size());
+
+        // The request is replayed once connectivity returns, and isn't tracked for refresh-ahead afterwards
+        refresher.setPaused(false);
+
+        assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, refreshCount.get());
+        assertEquals(0, refresher.size());
+    }
+
+    private TokenResult createTokenResult(String accessToken, long expiresInMillis) {
+        TokenResult tokenResult = new TokenResult();
+        tokenResult.setAccessToken(accessToken);
+        tokenResult.setScopes(new String[] { "mocked-scope" });
+        tokenResult.setExpiresOn(new Date(System.currentTimeMillis() + expiresInMillis));
+
+        return tokenResult;
+    }
+}
@@ -0,0 +1,118 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TokenSnapshotStoreTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void saveExpectEncryptedRoundTrip() throws Exception {
+        TokenSnapshotStore store = new TokenSnapshotStore(directory, createKeyProvider((byte) 1));
+        store.save("group", "key", createTokenResult());
+
+        TokenResult tokenResult = store.load("key");
+
+        assertEquals("access-token", tokenResult.getAccessToken());
+        assertEquals("id-token", tokenResult.getIdToken());
+        assertEquals("account-id", tokenResult.getAccountId());
+        assertNull(tokenResult.getUsername());
+        assertEquals(new Date(1_700_000_000_000L), tokenResult.getExpiresOn());
+        assertArrayEquals(new String[] { "User.Read", "openid" }, tokenResult.getScopes());
+        assertNull(store.load("other-key"));
+
+        byte[] contents = Files.readAllBytes(findSnapshotFile().toPath());
+        assertFalse(new String(contents, StandardCharsets.ISO_8859_1).contains("access-token"));
+    }
+
+    @Test
+    void loadWithReplacedKeyExpectSnapshotDiscarded() throws Exception {
+        new TokenSnapshotStore(directory, createKeyProvider((byte) 1)).save("group", "key", createTokenResult());
+
+        assertNull(new TokenSnapshotStore(directory, createKeyProvider((byte) 2)).load("key"));
+        assertNull(findSnapshotFile());
+    }
+
+    @Test
+    void loadTamperedSnapshotExpectNull() throws Exception {
+        TokenSnapshotStore store = new TokenSnapshotStore(directory, createKeyProvider((byte) 1));
+        store.save("group", "key", createTokenResult());
+
+        try (RandomAccessFile file = new RandomAccessFile(findSnapshotFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 1);
+        }
+
+        assertNull(store.load("key"));
+    }
+
+    @Test
+    void deleteGroupExpectOtherGroupsKept() throws Exception {
+        TokenSnapshotStore store = new TokenSnapshotStore(directory, createKeyProvider((byte) 1));
+        store.save("group", "key", createTokenResult());
+        store.save("other-group", "other-key", createTokenResult());
+
+        store.deleteGroup("group");
+
+        assertNull(store.load("key"));
+        assertEquals("access-token", store.load("other-key").getAccessToken());
+    }
+
+    @Test
+    void saveInOtherGroupExpectSnapshotMoved() throws Exception {
+        TokenSnapshotStore store = new TokenSnapshotStore(directory, createKeyProvider((byte) 1));
+        store.save("group", "key", createTokenResult());
+        store.save("other-group", "key", createTokenResult());
+
+        store.deleteGroup("other-group");
+
+        assertNull(store.load("key"));
+    }
+
+    private File findSnapshotFile() {
+        for (File groupDirectory : directory.listFiles()) {
+            File[] snapshots = groupDirectory.listFiles();
+            if (snapshots != null && snapshots.length > 0) {
+                return snapshots[0];
+            }
+        }
+
+        return null;
+    }
+
+    private static KeyProvider createKeyProvider(byte fill) {
+        byte[] key = new byte[32];
+        Arrays.fill(key, fill);
+        SecretKey secretKey = new SecretKeySpec(key, "AES");
+
+        return () -> secretKey;
+    }
+
+    private static TokenResult createTokenResult() {
+        TokenResult tokenResult = new TokenResult();
+        tokenResult.setAccessToken("access-token");
+        tokenResult.setIdToken("id-token");
+        tokenResult.setAccountId("account-id");
+        tokenResult.setExpiresOn(new Date(1_700_000_000_000L));
+        tokenResult.setScopes(new String[] { "User.Read", "openid" });
+
+        return tokenResult;
+    }
+}
@@ -0,0 +1,107 @@
+package nl.recognize.msauthplugin;
+
+import com.microsoft.identity.client.IAccount;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory index of the accounts of a multiple account application by id and username. Accounts are loaded from MSAL
+ * once and kept up to date on sign-in and sign-out, so lookups don't go through MSAL's account cache every time.
+ */
+public class AccountIndex {
+
+    public interface Loader {
+        List<IAccount> load() throws Exception;
+    }
+
+    private final Map<String, IAccount> accountsById = new HashMap<>();
+    private final Map<String, IAccount> accountsByUsername = new HashMap<>();
+    private boolean loaded;
+    private long loadCount;
+
+    /**
+     * Finds an account by id or username. Without an identifier the only signed in account is returned, or null when
+     * there is none or more than one.
+     */
+    public synchronized IAccount find(String identifier, Loader loader) throws Exception {
+        this.ensureLoaded(loader);
+
+        if (identifier == null) {
+            return accountsById.size() == 1 ? accountsById.values().iterator().next() : null;
+        }
+
+        IAccount account = accountsById.get(identifier);
+        if (account == null) {
+            account = accountsByUsername.get(identifier.toLowerCase(Locale.ROOT));
+        }
+
+        return account;
+    }
+
+    public synchronized List<IAccount> getAll(Loader loader) throws Exception {
+        this.ensureLoaded(loader);
+
+        return new ArrayList<>(accountsById.values());
+    }
+
+    public synchronized void put(IAccount account) {
+        if (account == null || account.getId() == null) {
+            return;
+        }
+
+        this.remove(accountsById.get(account.getId()));
+        accountsById.put(account.getId(), account);
+        if (account.getUsername() != null) {
+            accountsByUsername.put(account.getUsername().toLowerCase(Locale.ROOT), account);
+        }
+    }
+
+    public synchronized void remove(IAccount account) {
+        if (account == null || account.getId() == null) {
+            return;
+        }
+
+        IAccount removed = accountsById.remove(account.getId());
+        if (removed != null && removed.getUsername() != null) {
+            accountsByUsername.remove(removed.getUsername().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Forgets all accounts, the next lookup loads them from MSAL again.
+     */
+    public synchronized void invalidate() {
+        accountsById.clear();
+        accountsByUsername.clear();
+        loaded = false;
+    }
+
+    public synchronized int size() {
+        return accountsById.size();
+    }
+
+    public synchronized long getLoadCount() {
+        return loadCount;
+    }
+
+    private void ensureLoaded(Loader loader) throws Exception {
+        if (loaded) {
+            return;
+        }
+
+        List<IAccount> accounts = loader.load();
+        accountsById.clear();
+        accountsByUsername.clear();
+        if (accounts != null) {
+            for (IAccount account : accounts) {
+                this.put(account);
+            }
+        }
+
+        loaded = true;
+        loadCount++;
+    }
+}
@@ -0,0 +1,76 @@
+package nl.recognize.msauthplugin;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import androidx.annotation.NonNull;
+
+public class AndroidConnectivityMonitor implements ConnectivityMonitor {
+
+    private final ConnectivityManager connectivityManager;
+    private final CoreLogger logger;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    public AndroidConnectivityMonitor(Context context, CoreLogger logger) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.logger = logger;
+    }
+
+    @Override
+    public boolean isConnected() {
+        if (connectivityManager == null) {
+            // Without connectivity information requests are attempted as before
+            return true;
+        }
+
+        try {
+            Network network = connectivityManager.getActiveNetwork();
+            NetworkCapabilities capabilities = network != null ? connectivityManager.getNetworkCapabilities(network) : null;
+
+            return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        } catch (SecurityException ex) {
+            logger.warn("ACCESS_NETWORK_STATE permission missing, assuming the device is online");
+            return true;
+        }
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        if (connectivityManager == null || networkCallback != null) {
+            return;
+        }
+
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                listener.connectivityChanged(true);
+            }
+
+            @Override
+            public void onLost(@NonNull Network network) {
+                // Another network may still be available
+                listener.connectivityChanged(isConnected());
+            }
+        };
+
+        try {
+            connectivityManager.registerNetworkCallback(
+                new NetworkRequest.Builder().addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build(),
+                networkCallback
+            );
+        } catch (SecurityException ex) {
+            logger.warn("ACCESS_NETWORK_STATE permission missing, connectivity changes are not tracked");
+            networkCallback = null;
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (networkCallback != null) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+    }
+}
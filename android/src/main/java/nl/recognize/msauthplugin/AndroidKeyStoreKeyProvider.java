@@ -0,0 +1,51 @@
+package nl.recognize.msauthplugin;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Keeps the snapshot key in the Android Keystore, so the key material never leaves it and can't be read from the app's
+ * files.
+ */
+public class AndroidKeyStoreKeyProvider implements KeyProvider {
+
+    private static final String KEY_STORE = "AndroidKeyStore";
+    private static final int KEY_SIZE = 256;
+
+    private final String alias;
+
+    public AndroidKeyStoreKeyProvider(String alias) {
+        this.alias = alias;
+    }
+
+    @Override
+    public synchronized SecretKey getOrCreateKey() throws GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(KEY_STORE);
+        try {
+            keyStore.load(null);
+        } catch (IOException ex) {
+            throw new GeneralSecurityException("Unable to load the Android Keystore.", ex);
+        }
+
+        KeyStore.Entry entry = keyStore.getEntry(alias, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        }
+
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEY_STORE);
+        keyGenerator.init(
+            new KeyGenParameterSpec.Builder(alias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(KEY_SIZE)
+                .build()
+        );
+
+        return keyGenerator.generateKey();
+    }
+}
@@ -0,0 +1,81 @@
+package nl.recognize.msauthplugin;
+
+import com.microsoft.identity.client.IAccount;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshot of the current account per single account application. Reading the current account goes through MSAL's
+ * persisted storage, so it is only done again after the snapshot was invalidated. A signed out state (no account) is a
+ * valid snapshot as well.
+ */
+public class CurrentAccountCache {
+
+    public interface Loader {
+        IAccount load() throws Exception;
+    }
+
+    private static final class Snapshot {
+
+        private final IAccount account;
+
+        private Snapshot(IAccount account) {
+            this.account = account;
+        }
+    }
+
+    private final Map<Object, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public IAccount get(Object context, Loader loader) throws Exception {
+        Snapshot snapshot = snapshots.get(context);
+        if (snapshot != null) {
+            hits.incrementAndGet();
+            return snapshot.account;
+        }
+
+        misses.incrementAndGet();
+        long loadGeneration = generation.get();
+        IAccount account = loader.load();
+
+        // A sign-in or sign-out that happened while loading wins over the (possibly stale) loaded account
+        synchronized (this) {
+            if (generation.get() == loadGeneration) {
+                snapshots.put(context, new Snapshot(account));
+            }
+        }
+
+        return account;
+    }
+
+    /**
+     * Replaces the snapshot and returns the account it held, or null when it held none or nothing was loaded yet.
+     */
+    public synchronized IAccount put(Object context, IAccount account) {
+        generation.incrementAndGet();
+        Snapshot previousSnapshot = snapshots.put(context, new Snapshot(account));
+
+        return previousSnapshot != null ? previousSnapshot.account : null;
+    }
+
+    public synchronized void invalidate(Object context) {
+        generation.incrementAndGet();
+        snapshots.remove(context);
+    }
+
+    public synchronized void clear() {
+        generation.incrementAndGet();
+        snapshots.clear();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
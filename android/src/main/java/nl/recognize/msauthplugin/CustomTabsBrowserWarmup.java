@@ -0,0 +1,116 @@
+package nl.recognize.msauthplugin;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.browser.customtabs.CustomTabsClient;
+import androidx.browser.customtabs.CustomTabsServiceConnection;
+import androidx.browser.customtabs.CustomTabsSession;
+
+/**
+ * Binds to the Custom Tabs service of the default browser, which is what MSAL opens for interactive logins without a
+ * broker. Warming up starts the browser process and pre-fetches the url, so it doesn't have to cold-start while the
+ * user waits.
+ */
+public class CustomTabsBrowserWarmup implements BrowserWarmup {
+
+    private final Context context;
+    private final CoreLogger logger;
+    private CustomTabsServiceConnection connection;
+    private CustomTabsSession session;
+    private String pendingUrl;
+
+    public CustomTabsBrowserWarmup(Context context, CoreLogger logger) {
+        this.context = context.getApplicationContext();
+        this.logger = logger;
+    }
+
+    @Override
+    public synchronized void warmUp(String url) {
+        if (session != null) {
+            mayLaunchUrl(session, url);
+            return;
+        }
+
+        pendingUrl = url;
+        if (connection != null) {
+            // Still binding, the url is pre-fetched once connected
+            return;
+        }
+
+        String packageName = CustomTabsClient.getPackageName(context, null);
+        if (packageName == null) {
+            logger.debug("No browser supporting Custom Tabs found, skipping warm-up");
+            return;
+        }
+
+        connection = new CustomTabsServiceConnection() {
+            @Override
+            public void onCustomTabsServiceConnected(@NonNull ComponentName name, @NonNull CustomTabsClient client) {
+                connected(this, client);
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+                disconnected(this);
+            }
+        };
+
+        try {
+            if (!CustomTabsClient.bindCustomTabsService(context, packageName, connection)) {
+                logger.debug("Unable to bind to the Custom Tabs service of " + packageName);
+                connection = null;
+            }
+        } catch (SecurityException ex) {
+            logger.warn("Unable to bind to the Custom Tabs service of " + packageName + ": " + ex.getMessage());
+            connection = null;
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        unbind();
+        pendingUrl = null;
+    }
+
+    private synchronized void connected(CustomTabsServiceConnection connection, CustomTabsClient client) {
+        if (this.connection != connection) {
+            // Released while binding
+            return;
+        }
+
+        client.warmup(0);
+        session = client.newSession(null);
+        if (session != null && pendingUrl != null) {
+            mayLaunchUrl(session, pendingUrl);
+        }
+        pendingUrl = null;
+    }
+
+    private synchronized void disconnected(CustomTabsServiceConnection connection) {
+        if (this.connection == connection) {
+            // The browser went away, bind again on the next warm-up
+            unbind();
+        }
+    }
+
+    private void unbind() {
+        if (connection != null) {
+            try {
+                context.unbindService(connection);
+            } catch (IllegalArgumentException ex) {
+                // Not bound anymore
+            }
+        }
+
+        connection = null;
+        session = null;
+    }
+
+    private void mayLaunchUrl(CustomTabsSession session, String url) {
+        if (!session.mayLaunchUrl(Uri.parse(url), null, null)) {
+            logger.debug("Browser declined to pre-fetch " + url);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package nl.recognize.msauthplugin;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.microsoft.identity.client.IMultipleAccountPublicClientApplication;
 import com.microsoft.identity.client.ISingleAccountPublicClientApplication;
 import com.microsoft.identity.client.PublicClientApplication;
 import com.microsoft.identity.client.exception.MsalException;
@@ -17,4 +18,12 @@ public class DefaultPublicClientApplicationFactory implements PublicClientApplic
     ) throws InterruptedException, MsalException {
         return PublicClientApplication.createSingleAccountPublicClientApplication(context, configFile);
     }
+
+    @Override
+    public IMultipleAccountPublicClientApplication createMultipleAccountPublicClientApplication(
+        @NonNull Context context,
+        @Nullable File configFile
+    ) throws InterruptedException, MsalException {
+        return PublicClientApplication.createMultipleAccountPublicClientApplication(context, configFile);
+    }
 }
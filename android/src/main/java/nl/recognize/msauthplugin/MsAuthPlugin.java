@@ -10,14 +10,36 @@ import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 import com.getcapacitor.annotation.Permission;
 import com.microsoft.identity.client.*;
+import com.microsoft.identity.client.exception.MsalClientException;
 import com.microsoft.identity.client.exception.MsalException;
+import com.microsoft.identity.client.exception.MsalServiceException;
 import com.microsoft.identity.client.exception.MsalUiRequiredException;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -28,7 +50,73 @@ import org.json.JSONObject;
 )
 public class MsAuthPlugin extends Plugin {
 
+    private static final String CONFIG_DIRECTORY = "msauth";
+    private static final String SNAPSHOT_DIRECTORY = "tokens";
+    private static final String SNAPSHOT_KEY_ALIAS = "msauth_token_snapshots";
+    private static final int DEFAULT_EXPIRY_MARGIN_SECONDS = 300;
+    private static final int DEFAULT_SILENT_TIMEOUT_MS = 30000;
+    private static final int MAX_WORKER_THREADS = 4;
+    private static final int MAX_PENDING_TASKS = 64;
+    private static final int MAX_CONCURRENT_REFRESHES = 2;
+    private static final long EVENT_COALESCE_MILLIS = 250;
+    private static final int DEFAULT_MAX_RETRIES = 2;
+    private static final long RETRY_INITIAL_DELAY_MILLIS = 500;
+    private static final long RETRY_MAX_DELAY_MILLIS = 8000;
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 30000;
+    private static final String SOURCE_MSAL = "msal";
+    private static final Set<String> EXPIRY_FIELDS = Collections.singleton("expiresOn");
+    private static final RetryExecutor.ErrorClassifier MSAL_ERROR_CLASSIFIER = new RetryExecutor.ErrorClassifier() {
+        @Override
+        public boolean isTransient(Exception ex) {
+            return isTransientError(ex);
+        }
+
+        @Override
+        public Exception createCircuitOpenException(String authority) {
+            return new MsalClientException("circuit_open", "Authority " + authority + " is temporarily unavailable.");
+        }
+    };
+
     private final PublicClientApplicationFactory publicClientApplicationFactory;
+    private final DiagnosticLog diagnosticLog = new DiagnosticLog(createLogcatSink());
+    private final CoreLogger logger = new CoreLogger(diagnosticLog);
+    private final ContextCache<IPublicClientApplication> contextCache = new ContextCache<>();
+    private final ConcurrentMap<IPublicClientApplication, AccountIndex> accountIndexes = new ConcurrentHashMap<>();
+    private final CurrentAccountCache currentAccountCache = new CurrentAccountCache();
+    private final TokenCache tokenCache = new TokenCache();
+    private final SingleFlight inFlightRequests = new SingleFlight();
+    private final PendingRequests pendingRequests = new PendingRequests();
+    private final Metrics metrics = new Metrics();
+    private final ClaimsCache claimsCache = new ClaimsCache();
+    private final RetryExecutor retryExecutor = new RetryExecutor(
+        new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MILLIS),
+        metrics,
+        MSAL_ERROR_CLASSIFIER,
+        logger
+    );
+    private final TokenPipeline tokenPipeline = new TokenPipeline(tokenCache, inFlightRequests, metrics, logger);
+    private boolean msalLogsRouted;
+    private ScheduledFuture<?> metricsStream;
+    private volatile TokenSnapshotStore tokenSnapshotStore;
+    private volatile ConnectivityMonitor connectivityMonitor;
+    private volatile BrowserWarmup browserWarmup;
+    private boolean backgrounded;
+    private boolean offline;
+    private final ThreadPoolExecutor authExecutor = createAuthExecutor();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(createThreadFactory("msauth-scheduler"));
+    private volatile TokenEvents tokenEvents;
+    private final TokenRefresher tokenRefresher = new TokenRefresher(
+        scheduler,
+        MAX_CONCURRENT_REFRESHES,
+        new TokenRefresher.Listener() {
+            @Override
+            public void tokenRefreshed(String key, TokenResult tokenResult) {
+                tokenEvents().tokenRefreshed(key, tokenResult);
+            }
+        }
+    );
+    private volatile TokenOrchestrator tokenOrchestrator;
 
     public MsAuthPlugin() {
         this(new DefaultPublicClientApplicationFactory());
@@ -38,179 +126,1434 @@ public class MsAuthPlugin extends Plugin {
         this.publicClientApplicationFactory = publicClientApplicationFactory;
     }
 
+    private static CoreLogger.Sink createLogcatSink() {
+        return new CoreLogger.Sink() {
+            @Override
+            public boolean isLoggable(CoreLogger.Level level) {
+                return true;
+            }
+
+            @Override
+            public void log(CoreLogger.Level level, String source, String message, Throwable throwable) {
+                String line = CoreLogger.SOURCE_PLUGIN.equals(source) ? message : source + ": " + message;
+                switch (level) {
+                    case DEBUG:
+                        Logger.debug(line);
+                        break;
+                    case INFO:
+                        Logger.info(line);
+                        break;
+                    case WARN:
+                        Logger.warn(line);
+                        break;
+                    default:
+                        Logger.error(line, throwable);
+                        break;
+                }
+            }
+        };
+    }
+
+    @PluginMethod
+    public void initialize(final PluginCall call) {
+        this.runInBackground(call, () -> this.executeInitialize(call));
+    }
+
+    private void executeInitialize(final PluginCall call) {
+        try {
+            ContextConfiguration configuration = this.createConfigurationFromPluginCall(call);
+            if (configuration == null) {
+                return;
+            }
+
+            long startTime = System.nanoTime();
+            boolean cached = contextCache.get(configuration.getFingerprint()) != null;
+            IPublicClientApplication context = this.createContext(configuration);
+            long contextTime = System.nanoTime();
+
+            JSObject result = new JSObject();
+            if (call.getBoolean("loadAccount", false)) {
+                result.put("accountLoaded", !this.loadAccounts(configuration, context).isEmpty());
+                result.put("accountDurationMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - contextTime));
+            }
+
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            logger.info("MSAL " + getMsalVersion() + " initialized in " + durationMillis + "ms" + (cached ? " (cached)" : ""));
+
+            result.put("durationMs", durationMillis);
+            result.put("contextDurationMs", TimeUnit.NANOSECONDS.toMillis(contextTime - startTime));
+            result.put("cached", cached);
+            result.put("msalVersion", getMsalVersion());
+
+            call.resolve(result);
+        } catch (Exception ex) {
+            logger.error("Unable to initialize: " + ex.getMessage(), ex);
+            call.reject("Unable to initialize.");
+        }
+    }
+
     @PluginMethod
     public void login(final PluginCall call) {
+        this.runInBackground(call, () -> this.executeLogin(call, false));
+    }
+
+    @PluginMethod
+    public void getClaims(final PluginCall call) {
+        this.runInBackground(call, () -> this.executeLogin(call, true));
+    }
+
+    private void executeLogin(final PluginCall call, final boolean claimsOnly) {
+        TokenResult servedSnapshot = null;
         try {
-            ISingleAccountPublicClientApplication context = this.createContextFromPluginCall(call);
+            final ContextConfiguration configuration = this.createConfigurationFromPluginCall(call);
+            if (configuration == null) {
+                return;
+            }
+
+            Prompt prompt = this.getPromptFromPluginCall(call);
+            final long expiryMarginMillis = call.getInt("expiryMarginSeconds", DEFAULT_EXPIRY_MARGIN_SECONDS) * 1000L;
+            long silentTimeoutMillis = call.getInt("silentTimeoutMs", DEFAULT_SILENT_TIMEOUT_MS);
+            long timeoutMillis = call.getInt("timeoutMs", 0);
+            final long refreshAheadMillis = call.getInt("refreshAheadSeconds", 0) * 1000L;
+            boolean warmUpBrowser = call.getBoolean("warmUpBrowser", false);
+            RetryPolicy retryPolicy = this.createRetryPolicy(call.getInt("maxRetries", DEFAULT_MAX_RETRIES));
+            final String accountId = call.getString("accountId");
+            final List<String> requestedScopes = call.getArray("scopes").toList();
+            final List<String> requestedClaims = call.hasOption("claims") ? call.getArray("claims").<String>toList() : null;
+            final boolean includeTokens = !claimsOnly || call.getBoolean("includeTokens", false);
+            final Set<String> fields = includeTokens ? getFieldsFromPluginCall(call) : EXPIRY_FIELDS;
+            final String knownTokenHash = call.getString("knownTokenHash");
+            final String snapshotKey = call.getBoolean("staleWhileRevalidate", false)
+                ? getSnapshotKey(configuration, accountId, requestedScopes)
+                : null;
+
+            final IPublicClientApplication context = this.createContext(configuration);
 
             if (context == null) {
                 call.reject("Context was null");
                 return;
             }
 
-            Prompt prompt = Prompt.SELECT_ACCOUNT;
-            if (call.hasOption("prompt")) {
-                switch (call.getString("prompt").toLowerCase()) {
-                    case "select_account":
-                        prompt = Prompt.SELECT_ACCOUNT;
-                        break;
-                    case "login":
-                        prompt = Prompt.LOGIN;
-                        break;
-                    case "consent":
-                        prompt = Prompt.CONSENT;
-                        break;
-                    case "none":
-                        prompt = Prompt.WHEN_REQUIRED;
-                        break;
-                    case "create":
-                        prompt = Prompt.CREATE;
-                        break;
-                    default:
-                        Logger.warn("Unrecognized prompt option: " + call.getString("prompt"));
-                        break;
+            // Serve the persisted token without waiting for a token request and revalidate it afterwards. The account
+            // may have been replaced outside of this plugin since it was persisted, e.g. through the broker on a shared
+            // device, so it is only served to the account that is signed in now.
+            if (snapshotKey != null) {
+                TokenResult snapshot = this.loadTokenSnapshot(snapshotKey, expiryMarginMillis);
+                if (snapshot != null) {
+                    IAccount account = this.loadAccount(configuration, context, accountId);
+                    if (account != null && account.getId().equals(snapshot.getAccountId())) {
+                        servedSnapshot = snapshot;
+                        logger.info("Serving persisted token while revalidating");
+                        call.resolve(createLoginResultObject(servedSnapshot, fields, knownTokenHash, requestedClaims));
+                    } else {
+                        logger.info("Persisted token belongs to another account");
+                        tokenSnapshots().delete(snapshotKey);
+                    }
                 }
             }
 
-            this.acquireToken(context, call.getArray("scopes").toList(), prompt, tokenResult -> {
-                    if (tokenResult != null) {
-                        JSObject result = new JSObject();
-                        result.put("accessToken", tokenResult.getAccessToken());
-                        result.put("idToken", tokenResult.getIdToken());
-                        JSONArray scopes = new JSONArray(Arrays.asList(tokenResult.getScopes()));
-                        result.put("scopes", scopes);
+            final TokenClient client = this.createTokenClient(configuration, context);
+            final TokenResult revalidatedSnapshot = servedSnapshot;
+            final PendingRequests.Request request = pendingRequests.register(
+                call.getString("requestId"),
+                ScopeSet.of(requestedScopes).getKey(),
+                new TokenResultCallback() {
+                    @Override
+                    public void tokenReceived(TokenResult tokenResult) {
+                        if (tokenResult == null) {
+                            if (revalidatedSnapshot != null) {
+                                logger.info("Persisted token could not be revalidated silently");
+                                tokenSnapshots().delete(snapshotKey);
+                            } else {
+                                call.reject("Unable to obtain access token");
+                            }
+
+                            return;
+                        }
 
-                        call.resolve(result);
-                    } else {
-                        call.reject("Unable to obtain access token");
+                        String refreshGroup = getRefreshGroup(configuration, tokenResult.getAccountId());
+                        if (snapshotKey != null) {
+                            saveTokenSnapshot(refreshGroup, snapshotKey, tokenResult);
+                        }
+
+                        String tokenKey = getTokenKey(configuration, tokenResult.getAccountId(), requestedScopes);
+                        tokenEvents().tokenIssued(tokenKey, tokenResult, expiryMarginMillis);
+                        if (revalidatedSnapshot == null) {
+                            call.resolve(createLoginResultObject(tokenResult, fields, knownTokenHash, requestedClaims));
+                        } else if (!tokenResult.getAccessTokenHash().equals(revalidatedSnapshot.getAccessTokenHash())) {
+                            tokenEvents().tokenRefreshed(tokenKey, tokenResult);
+                        }
+
+                        if (refreshAheadMillis > 0) {
+                            tokenRefresher.track(
+                                tokenKey,
+                                refreshGroup,
+                                tokenOrchestrator().createRefreshTask(
+                                    client,
+                                    tokenResult.getAccountId(),
+                                    requestedScopes,
+                                    createRetryPolicy(DEFAULT_MAX_RETRIES),
+                                    connectivity()
+                                ),
+                                tokenResult,
+                                refreshAheadMillis
+                            );
+                        }
+
+                        if (isServedOffline(tokenResult, expiryMarginMillis)) {
+                            queueOfflineRefresh(configuration, client, tokenResult.getAccountId(), requestedScopes);
+                        }
                     }
-                });
+
+                    @Override
+                    public void tokenFailed(Exception ex) {
+                        if (revalidatedSnapshot != null) {
+                            logger.warn("Unable to revalidate persisted token: " + ex.getMessage());
+                            return;
+                        }
+
+                        if (ex instanceof TimeoutException) {
+                            logger.warn(ex.getMessage());
+                            call.reject(ex.getMessage(), "timeout");
+                            return;
+                        }
+
+                        if (ex instanceof CancellationException) {
+                            logger.info(ex.getMessage());
+                            call.reject(ex.getMessage(), "cancelled");
+                            return;
+                        }
+
+                        if (ex instanceof OfflineException) {
+                            logger.warn(ex.getMessage());
+                            queueOfflineRefresh(configuration, client, accountId, requestedScopes);
+                            call.reject(ex.getMessage(), "offline");
+                            return;
+                        }
+
+                        if (isUnavailableError(ex)) {
+                            logger.warn("Authority unavailable: " + ex.getMessage());
+                            call.reject("Authentication service is temporarily unavailable.", "unavailable");
+                            return;
+                        }
+
+                        logger.error("Unable to login: " + ex.getMessage(), ex);
+                        call.reject("Unable to fetch access token.");
+                    }
+                }
+            );
+
+            this.scheduleDeadline(request, timeoutMillis);
+
+            tokenOrchestrator().acquire(
+                client,
+                accountId,
+                requestedScopes,
+                prompt.name(),
+                expiryMarginMillis,
+                silentTimeoutMillis,
+                retryPolicy,
+                revalidatedSnapshot != null,
+                warmUpBrowser ? browserWarmup() : null,
+                connectivity(),
+                request
+            );
         } catch (Exception ex) {
-            Logger.error("Unable to login: " + ex.getMessage(), ex);
-            call.reject("Unable to fetch access token.");
+            logger.error("Unable to login: " + ex.getMessage(), ex);
+            if (servedSnapshot == null) {
+                call.reject("Unable to fetch access token.");
+            }
+        }
+    }
+
+    @PluginMethod
+    public void acquireTokens(final PluginCall call) {
+        this.runInBackground(call, () -> this.executeAcquireTokens(call));
+    }
+
+    private void executeAcquireTokens(final PluginCall call) {
+        try {
+            final ContextConfiguration configuration = this.createConfigurationFromPluginCall(call);
+            if (configuration == null) {
+                return;
+            }
+
+            JSObject scopeSets = call.getObject("scopeSets");
+            if (scopeSets == null || scopeSets.length() == 0) {
+                call.reject("No scope sets specified.");
+                return;
+            }
+
+            final Map<String, List<String>> requests = new LinkedHashMap<>();
+            Iterator<String> names = scopeSets.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                JSONArray scopes = scopeSets.getJSONArray(name);
+                List<String> scopeList = new ArrayList<>();
+                for (int i = 0; i < scopes.length(); i++) {
+                    scopeList.add(scopes.getString(i));
+                }
+
+                requests.put(name, scopeList);
+            }
+
+            IPublicClientApplication context = this.createContext(configuration);
+            Prompt prompt = this.getPromptFromPluginCall(call);
+            final long expiryMarginMillis = call.getInt("expiryMarginSeconds", DEFAULT_EXPIRY_MARGIN_SECONDS) * 1000L;
+            long silentTimeoutMillis = call.getInt("silentTimeoutMs", DEFAULT_SILENT_TIMEOUT_MS);
+            long timeoutMillis = call.getInt("timeoutMs", 0);
+            RetryPolicy retryPolicy = this.createRetryPolicy(call.getInt("maxRetries", DEFAULT_MAX_RETRIES));
+
+            // The batch is settled as a whole, so cancelling it or its deadline releases the call right away
+            final AtomicReference<JSObject> batchResult = new AtomicReference<>();
+            final PendingRequests.Request request = pendingRequests.register(
+                call.getString("requestId"),
+                null,
+                new TokenResultCallback() {
+                    @Override
+                    public void tokenReceived(TokenResult tokenResult) {
+                        call.resolve(batchResult.get());
+                    }
+
+                    @Override
+                    public void tokenFailed(Exception ex) {
+                        if (ex instanceof TimeoutException) {
+                            logger.warn(ex.getMessage());
+                            call.reject(ex.getMessage(), "timeout");
+                        } else if (ex instanceof CancellationException) {
+                            logger.info(ex.getMessage());
+                            call.reject(ex.getMessage(), "cancelled");
+                        } else {
+                            logger.error("Unable to acquire tokens: " + ex.getMessage(), ex);
+                            call.reject("Unable to fetch access tokens.");
+                        }
+                    }
+                }
+            );
+            this.scheduleDeadline(request, timeoutMillis);
+
+            final TokenClient client = this.createTokenClient(configuration, context);
+            final String accountId = call.getString("accountId");
+            try {
+                tokenOrchestrator().acquireBatch(
+                    client,
+                    accountId,
+                    requests,
+                    prompt.name(),
+                    expiryMarginMillis,
+                    silentTimeoutMillis,
+                    retryPolicy,
+                    connectivity(),
+                    request,
+                    (results, errors) -> {
+                        for (Map.Entry<String, TokenResult> result : results.entrySet()) {
+                            TokenResult tokenResult = result.getValue();
+                            String tokenKey = getTokenKey(configuration, tokenResult.getAccountId(), requests.get(result.getKey()));
+                            tokenEvents().tokenIssued(tokenKey, tokenResult, expiryMarginMillis);
+                            if (isServedOffline(tokenResult, expiryMarginMillis)) {
+                                queueOfflineRefresh(configuration, client, tokenResult.getAccountId(), requests.get(result.getKey()));
+                            }
+                        }
+                        for (Map.Entry<String, Exception> error : errors.entrySet()) {
+                            if (error.getValue() instanceof OfflineException) {
+                                queueOfflineRefresh(configuration, client, accountId, requests.get(error.getKey()));
+                            }
+                        }
+
+                        // Dropped when the batch was cancelled or timed out in the meantime
+                        batchResult.set(createBatchResultObject(results, errors));
+                        request.tokenReceived(null);
+                    }
+                );
+            } catch (Exception ex) {
+                request.tokenFailed(ex);
+            }
+        } catch (Exception ex) {
+            logger.error("Unable to acquire tokens: " + ex.getMessage(), ex);
+            call.reject("Unable to fetch access tokens.");
+        }
+    }
+
+    @PluginMethod
+    public void cancel(final PluginCall call) {
+        try {
+            String requestId = call.getString("requestId");
+            String scopeKey = call.hasOption("scopes") ? ScopeSet.of(call.getArray("scopes").<String>toList()).getKey() : null;
+            if (requestId == null && scopeKey == null) {
+                call.reject("No request id or scopes specified.");
+                return;
+            }
+
+            JSObject result = new JSObject();
+            result.put("cancelled", pendingRequests.cancel(requestId, scopeKey));
+
+            call.resolve(result);
+        } catch (JSONException ex) {
+            logger.error("Unable to cancel: " + ex.getMessage(), ex);
+            call.reject("Invalid scopes specified.");
+        }
+    }
+
+    @PluginMethod
+    public void getMetrics(final PluginCall call) {
+        JSObject result = this.createMetricsObject();
+
+        if (call.getBoolean("reset", false)) {
+            metrics.reset();
+        }
+
+        if (call.hasOption("streamIntervalMs")) {
+            this.setMetricsStreamInterval(call.getInt("streamIntervalMs", 0));
+        }
+
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getDiagnostics(final PluginCall call) {
+        if (call.hasOption("logLevel")) {
+            CoreLogger.Level level = CoreLogger.Level.fromKey(call.getString("logLevel"));
+            if (level == null) {
+                call.reject("Invalid log level specified.");
+                return;
+            }
+
+            this.setLogLevel(level);
+        }
+
+        JSObject result = this.createDiagnosticsObject();
+
+        if (call.getBoolean("clear", false)) {
+            diagnosticLog.clear();
         }
+
+        call.resolve(result);
     }
 
     @PluginMethod
     public void logout(final PluginCall call) {
+        this.runInBackground(call, () -> this.executeLogout(call, false));
+    }
+
+    @PluginMethod
+    public void logoutAll(final PluginCall call) {
+        this.runInBackground(call, () -> this.executeLogout(call, true));
+    }
+
+    @PluginMethod
+    public void getAccounts(final PluginCall call) {
+        this.runInBackground(call, () -> this.executeGetAccounts(call));
+    }
+
+    private void executeGetAccounts(final PluginCall call) {
+        try {
+            ContextConfiguration configuration = this.createConfigurationFromPluginCall(call);
+            if (configuration == null) {
+                return;
+            }
+
+            JSONArray accounts = new JSONArray();
+            for (IAccount account : this.loadAccounts(configuration, this.createContext(configuration))) {
+                accounts.put(createAccountObject(account.getId(), account.getUsername()));
+            }
+
+            JSObject result = new JSObject();
+            result.put("accounts", accounts);
+
+            call.resolve(result);
+        } catch (Exception ex) {
+            logger.error("Unable to load accounts: " + ex.getMessage(), ex);
+            call.reject("Unable to load accounts.");
+        }
+    }
+
+    private void executeLogout(final PluginCall call, boolean allAccounts) {
         try {
-            ISingleAccountPublicClientApplication context = this.createContextFromPluginCall(call);
+            final ContextConfiguration configuration = this.createConfigurationFromPluginCall(call);
+            if (configuration == null) {
+                return;
+            }
+
+            IPublicClientApplication context = this.createContext(configuration);
 
             if (context == null) {
                 call.reject("Context was null");
                 return;
             }
 
-            if (context.getCurrentAccount() == null) {
-                call.reject("Nothing to sign out from.");
+            if (context instanceof IMultipleAccountPublicClientApplication) {
+                List<IAccount> accounts = new ArrayList<>();
+                if (allAccounts) {
+                    accounts.addAll(this.loadAccounts(configuration, context));
+                } else {
+                    IAccount account = this.loadAccount(configuration, context, call.getString("accountId"));
+                    if (account == null) {
+                        call.reject("Nothing to sign out from.");
+                        return;
+                    }
+
+                    accounts.add(account);
+                }
+
+                this.removeAccounts(call, configuration, (IMultipleAccountPublicClientApplication) context, accounts);
+                return;
+            }
+
+            final ISingleAccountPublicClientApplication singleAccountContext = (ISingleAccountPublicClientApplication) context;
+            final IAccount account = this.loadAccount(configuration, context, null);
+            final long signOutStartTime = System.nanoTime();
+            singleAccountContext.signOut(
+                new ISingleAccountPublicClientApplication.SignOutCallback() {
+                    @Override
+                    public void onSignOut() {
+                        metrics.record(Metrics.Phase.SIGN_OUT, signOutStartTime, false);
+                        currentAccountCache.put(singleAccountContext, null);
+                        if (account != null) {
+                            forgetAccount(configuration, account.getId());
+                            tokenEvents().signedOut(account.getId(), account.getUsername());
+                        }
+
+                        call.resolve();
+                    }
+
+                    @Override
+                    public void onError(@NonNull MsalException ex) {
+                        metrics.record(Metrics.Phase.SIGN_OUT, signOutStartTime, true);
+                        currentAccountCache.invalidate(singleAccountContext);
+                        logger.error("Error occurred during logout", ex);
+                        call.reject("Unable to sign out.");
+                    }
+                }
+            );
+        } catch (Exception ex) {
+            logger.error("Exception occurred during logout", ex);
+            call.reject("Unable to fetch context.");
+        }
+    }
+
+    private void removeAccounts(
+        final PluginCall call,
+        final ContextConfiguration configuration,
+        final IMultipleAccountPublicClientApplication context,
+        final List<IAccount> accounts
+    ) {
+        if (accounts.isEmpty()) {
+            call.resolve();
+            return;
+        }
+
+        final AccountIndex accountIndex = this.getAccountIndex(context);
+        final AtomicInteger remaining = new AtomicInteger(accounts.size());
+        final AtomicInteger failed = new AtomicInteger();
+        final Runnable complete = () -> {
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+
+            if (failed.get() > 0) {
+                call.reject("Unable to sign out " + failed.get() + " of " + accounts.size() + " account(s).");
             } else {
-                context.signOut(
-                    new ISingleAccountPublicClientApplication.SignOutCallback() {
+                call.resolve();
+            }
+        };
+
+        // MSAL removes accounts on its own threads, so every account is signed out in parallel
+        for (final IAccount account : accounts) {
+            final long signOutStartTime = System.nanoTime();
+            try {
+                context.removeAccount(
+                    account,
+                    new IMultipleAccountPublicClientApplication.RemoveAccountCallback() {
                         @Override
-                        public void onSignOut() {
-                            call.resolve();
+                        public void onRemoved() {
+                            metrics.record(Metrics.Phase.SIGN_OUT, signOutStartTime, false);
+                            accountIndex.remove(account);
+                            forgetAccount(configuration, account.getId());
+                            tokenEvents().signedOut(account.getId(), account.getUsername());
+                            complete.run();
                         }
 
                         @Override
                         public void onError(@NonNull MsalException ex) {
-                            Logger.error("Error occurred during logout", ex);
-                            call.reject("Unable to sign out.");
+                            metrics.record(Metrics.Phase.SIGN_OUT, signOutStartTime, true);
+                            logger.error("Error occurred during logout", ex);
+                            failed.incrementAndGet();
+                            complete.run();
                         }
                     }
                 );
+            } catch (Exception ex) {
+                logger.error("Exception occurred during logout", ex);
+                failed.incrementAndGet();
+                complete.run();
+            }
+        }
+    }
+
+    private void forgetAccount(ContextConfiguration configuration, String accountId) {
+        tokenRefresher.untrackGroup(getRefreshGroup(configuration, accountId));
+        tokenOrchestrator().forgetAccount(configuration.getFingerprint(), accountId);
+        claimsCache.removeAccount(accountId);
+
+        // Apps that never persisted a token don't need the snapshot store, nor its key
+        TokenSnapshotStore store = tokenSnapshotStore;
+        if (store == null && getSnapshotDirectory().isDirectory()) {
+            store = tokenSnapshots();
+        }
+        if (store != null) {
+            store.deleteGroup(getRefreshGroup(configuration, accountId));
+        }
+    }
+
+    /**
+     * Whether the token was served from the cache while the device is offline, even though it expires within the
+     * margin.
+     */
+    private boolean isServedOffline(TokenResult tokenResult, long expiryMarginMillis) {
+        return (
+            connectivityMonitor != null &&
+            !connectivityMonitor.isConnected() &&
+            tokenResult.getExpiresOn() != null &&
+            tokenResult.getExpiresOn().getTime() - expiryMarginMillis <= System.currentTimeMillis()
+        );
+    }
+
+    /**
+     * Requests answered while the device is offline are repeated silently once it is back online, the refresher is
+     * paused until then. The renewed token is cached and pushed through the tokenRefreshed event.
+     */
+    private void queueOfflineRefresh(ContextConfiguration configuration, TokenClient client, String accountId, List<String> scopes) {
+        try {
+            Account account = client.loadAccount(accountId);
+            if (account == null) {
+                // Without an account only an interactive request could help, which is left to the app
+                return;
             }
+
+            tokenRefresher.queue(
+                getTokenKey(configuration, account.getId(), scopes),
+                getRefreshGroup(configuration, account.getId()),
+                tokenOrchestrator().createRefreshTask(client, account.getId(), scopes, createRetryPolicy(DEFAULT_MAX_RETRIES), connectivity())
+            );
         } catch (Exception ex) {
-            Logger.error("Exception occurred during logout", ex);
-            call.reject("Unable to fetch context.");
+            logger.warn("Unable to queue refresh for when the device is back online: " + ex.getMessage());
         }
     }
 
-    @PluginMethod
-    public void logoutAll(final PluginCall call) {
-        logout(call);
+    private static String getSnapshotKey(ContextConfiguration configuration, String accountId, List<String> scopes) {
+        return configuration.getFingerprint() + "|" + accountId + "|" + ScopeSet.of(scopes).getKey();
     }
 
-    protected String getAuthorityUrl(ISingleAccountPublicClientApplication context) {
+    private TokenResult loadTokenSnapshot(String key, long expiryMarginMillis) {
+        TokenResult tokenResult = tokenSnapshots().load(key);
+        if (tokenResult == null || tokenResult.getExpiresOn() == null) {
+            return null;
+        }
+
+        return tokenResult.getExpiresOn().getTime() - expiryMarginMillis > System.currentTimeMillis() ? tokenResult : null;
+    }
+
+    private void saveTokenSnapshot(String group, String key, TokenResult tokenResult) {
+        if (tokenResult.getExpiresOn() == null) {
+            return;
+        }
+
+        try {
+            tokenSnapshots().save(group, key, tokenResult);
+        } catch (Exception ex) {
+            logger.warn("Unable to persist token: " + ex.getMessage());
+        }
+    }
+
+    private TokenSnapshotStore tokenSnapshots() {
+        TokenSnapshotStore store = tokenSnapshotStore;
+        if (store == null) {
+            synchronized (this) {
+                if (tokenSnapshotStore == null) {
+                    tokenSnapshotStore = new TokenSnapshotStore(getSnapshotDirectory(), createKeyProvider());
+                }
+                store = tokenSnapshotStore;
+            }
+        }
+
+        return store;
+    }
+
+    private File getSnapshotDirectory() {
+        return new File(new File(getContext().getFilesDir(), CONFIG_DIRECTORY), SNAPSHOT_DIRECTORY);
+    }
+
+    public long getContextCacheHitCount() {
+        return contextCache.getHitCount();
+    }
+
+    public long getContextCacheMissCount() {
+        return contextCache.getMissCount();
+    }
+
+    public long getCoalescedRequestCount() {
+        return inFlightRequests.getCoalescedCount();
+    }
+
+    int getPendingRequestCount() {
+        return pendingRequests.size();
+    }
+
+    int getInFlightRequestCount() {
+        return inFlightRequests.size();
+    }
+
+    private ConnectivityMonitor connectivity() {
+        ConnectivityMonitor monitor = connectivityMonitor;
+        if (monitor == null) {
+            synchronized (this) {
+                if (connectivityMonitor == null) {
+                    ConnectivityMonitor createdMonitor = createConnectivityMonitor();
+                    createdMonitor.start(connected -> {
+                        logger.info(connected ? "Network connectivity restored" : "Network connectivity lost");
+                        setOffline(!connected);
+                    });
+                    connectivityMonitor = createdMonitor;
+                    setOffline(!createdMonitor.isConnected());
+                }
+                monitor = connectivityMonitor;
+            }
+        }
+
+        return monitor;
+    }
+
+    /**
+     * Created on first use rather than with the plugin, since its scheduler comes from the overridable
+     * getEventScheduler().
+     */
+    private TokenEvents tokenEvents() {
+        TokenEvents events = tokenEvents;
+        if (events == null) {
+            synchronized (this) {
+                if (tokenEvents == null) {
+                    tokenEvents = new TokenEvents(getEventScheduler(), EVENT_COALESCE_MILLIS, createTokenEventsListener(), logger);
+                }
+                events = tokenEvents;
+            }
+        }
+
+        return events;
+    }
+
+    private TokenEvents.Listener createTokenEventsListener() {
+        return new TokenEvents.Listener() {
+            @Override
+            public void tokenRefreshed(TokenResult tokenResult) {
+                notifyListeners("tokenRefreshed", createTokenEventObject(tokenResult, true));
+            }
+    
+            @Override
+            public void tokenExpiring(TokenResult tokenResult) {
+                notifyListeners("tokenExpiring", createTokenEventObject(tokenResult, false));
+            }
+    
+            @Override
+            public void accountChanged(String accountId, String username, String priorAccountId, String priorUsername) {
+                JSObject data = new JSObject();
+                if (accountId != null) {
+                    data.put("account", createAccountObject(accountId, username));
+                }
+                if (priorAccountId != null) {
+                    data.put("priorAccount", createAccountObject(priorAccountId, priorUsername));
+                }
+                notifyListeners("accountChanged", data);
+            }
+    
+            @Override
+            public void signedOut(String accountId, String username) {
+                JSObject data = new JSObject();
+                data.put("account", createAccountObject(accountId, username));
+                notifyListeners("signedOut", data);
+            }
+        };
+    }
+
+    /**
+     * Created on first use rather than with the plugin, since its executor comes from the overridable getExecutor().
+     */
+    private TokenOrchestrator tokenOrchestrator() {
+        TokenOrchestrator orchestrator = tokenOrchestrator;
+        if (orchestrator == null) {
+            synchronized (this) {
+                if (tokenOrchestrator == null) {
+                    tokenOrchestrator = new TokenOrchestrator(
+                        tokenCache,
+                        tokenPipeline,
+                        pendingRequests,
+                        retryExecutor,
+                        metrics,
+                        scheduler,
+                        getExecutor(),
+                        logger
+                    );
+                }
+                orchestrator = tokenOrchestrator;
+            }
+        }
+
+        return orchestrator;
+    }
+
+    private BrowserWarmup browserWarmup() {
+        BrowserWarmup warmup = browserWarmup;
+        if (warmup == null) {
+            synchronized (this) {
+                if (browserWarmup == null) {
+                    browserWarmup = createBrowserWarmup();
+                }
+                warmup = browserWarmup;
+            }
+        }
+
+        return warmup;
+    }
+
+    /**
+     * Refreshes ahead of expiry are held back while the app is in the background or the device is offline. Resuming
+     * runs every refresh that became due in the meantime.
+     */
+    private synchronized void setBackgrounded(boolean backgrounded) {
+        this.backgrounded = backgrounded;
+        tokenRefresher.setPaused(backgrounded || offline);
+    }
+
+    private synchronized void setOffline(boolean offline) {
+        this.offline = offline;
+        tokenRefresher.setPaused(backgrounded || offline);
+    }
+
+    public Metrics getPhaseMetrics() {
+        return metrics;
+    }
+
+    long getClaimsCacheHitCount() {
+        return claimsCache.getHitCount();
+    }
+
+    int getClaimsCacheSize() {
+        return claimsCache.size();
+    }
+
+    int getTrackedRefreshCount() {
+        return tokenRefresher.size();
+    }
+
+    void clearContextCache() {
+        contextCache.clear();
+        accountIndexes.clear();
+        currentAccountCache.clear();
+    }
+
+    protected Executor getExecutor() {
+        return authExecutor;
+    }
+
+    protected ScheduledExecutorService getEventScheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public void load() {
+        super.load();
+
+        this.routeMsalLogs();
+    }
+
+    private synchronized void setLogLevel(CoreLogger.Level level) {
+        diagnosticLog.setLevel(level);
+        if (msalLogsRouted) {
+            this.setMsalLogLevel(level);
+        }
+    }
+
+    /**
+     * Sends MSAL's own log messages to the diagnostic log as well, so they share its level, sampling and buffer.
+     * Messages containing personal data are left out. MSAL's logcat output is a process wide setting of the app and is
+     * left as it is.
+     */
+    protected synchronized void routeMsalLogs() {
+        try {
+            com.microsoft.identity.client.Logger.getInstance().setExternalLogger((tag, logLevel, message, containsPII) -> {
+                if (!containsPII) {
+                    logger.log(toLevel(logLevel), SOURCE_MSAL, tag + ": " + message, null);
+                }
+            });
+        } catch (IllegalStateException ex) {
+            // MSAL only accepts a single external logger per process, the app installed its own
+            logger.warn("MSAL logs can't be routed to the diagnostic log: " + ex.getMessage());
+            return;
+        }
+        msalLogsRouted = true;
+        this.setMsalLogLevel(diagnosticLog.getLevel());
+    }
+
+    protected void setMsalLogLevel(CoreLogger.Level level) {
+        com.microsoft.identity.client.Logger.LogLevel msalLevel;
+        switch (level) {
+            case DEBUG:
+                msalLevel = com.microsoft.identity.client.Logger.LogLevel.VERBOSE;
+                break;
+            case INFO:
+                msalLevel = com.microsoft.identity.client.Logger.LogLevel.INFO;
+                break;
+            case WARN:
+                msalLevel = com.microsoft.identity.client.Logger.LogLevel.WARNING;
+                break;
+            default:
+                msalLevel = com.microsoft.identity.client.Logger.LogLevel.ERROR;
+                break;
+        }
+
+        com.microsoft.identity.client.Logger.getInstance().setLogLevel(msalLevel);
+    }
+
+    private static CoreLogger.Level toLevel(com.microsoft.identity.client.Logger.LogLevel logLevel) {
+        switch (logLevel) {
+            case ERROR:
+                return CoreLogger.Level.ERROR;
+            case WARNING:
+                return CoreLogger.Level.WARN;
+            case INFO:
+                return CoreLogger.Level.INFO;
+            default:
+                return CoreLogger.Level.DEBUG;
+        }
+    }
+
+    @Override
+    protected void handleOnPause() {
+        super.handleOnPause();
+
+        setBackgrounded(true);
+    }
+
+    @Override
+    protected void handleOnResume() {
+        super.handleOnResume();
+
+        // The current account may have been changed by another app while this one was in the background
+        currentAccountCache.clear();
+        setBackgrounded(false);
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        super.handleOnDestroy();
+
+        tokenRefresher.stop();
+        if (tokenEvents != null) {
+            tokenEvents.stop();
+        }
+        pendingRequests.cancelAll();
+        if (connectivityMonitor != null) {
+            connectivityMonitor.stop();
+        }
+        if (browserWarmup != null) {
+            browserWarmup.release();
+        }
+        setMetricsStreamInterval(0);
+        authExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    protected RetryPolicy createRetryPolicy(int maxRetries) {
+        return new RetryPolicy(maxRetries + 1, RETRY_INITIAL_DELAY_MILLIS, RETRY_MAX_DELAY_MILLIS);
+    }
+
+    protected ConnectivityMonitor createConnectivityMonitor() {
+        return new AndroidConnectivityMonitor(getContext(), logger);
+    }
+
+    protected BrowserWarmup createBrowserWarmup() {
+        return new CustomTabsBrowserWarmup(getContext(), logger);
+    }
+
+    protected KeyProvider createKeyProvider() {
+        return new AndroidKeyStoreKeyProvider(SNAPSHOT_KEY_ALIAS);
+    }
+
+    protected String getMsalVersion() {
+        return PublicClientApplication.getSdkVersion();
+    }
+
+    protected String getAuthorityUrl(IPublicClientApplication context) {
         return context.getConfiguration().getDefaultAuthority().getAuthorityURL().toString();
     }
 
-    private void acquireToken(
-        ISingleAccountPublicClientApplication context,
-        List<String> scopes,
-        Prompt prompt,
-        final TokenResultCallback callback
-    ) throws MsalException, InterruptedException {
-        String authority = getAuthorityUrl(context);
+    Prompt getPromptFromPluginCall(PluginCall call) {
+        Prompt prompt = Prompt.SELECT_ACCOUNT;
+        if (call.hasOption("prompt")) {
+            switch (call.getString("prompt").toLowerCase()) {
+                case "select_account":
+                    prompt = Prompt.SELECT_ACCOUNT;
+                    break;
+                case "login":
+                    prompt = Prompt.LOGIN;
+                    break;
+                case "consent":
+                    prompt = Prompt.CONSENT;
+                    break;
+                case "none":
+                    prompt = Prompt.WHEN_REQUIRED;
+                    break;
+                case "create":
+                    prompt = Prompt.CREATE;
+                    break;
+                default:
+                    logger.warn("Unrecognized prompt option: " + call.getString("prompt"));
+                    break;
+            }
+        }
 
-        ICurrentAccountResult result = context.getCurrentAccount();
-        if (result.getCurrentAccount() != null) {
-            try {
-                Logger.info("Starting silent login flow");
-                AcquireTokenSilentParameters.Builder builder = new AcquireTokenSilentParameters.Builder()
-                    .withScopes(scopes)
-                    .fromAuthority(authority)
-                    .forAccount(result.getCurrentAccount());
+        return prompt;
+    }
+
+    Set<String> getFieldsFromPluginCall(PluginCall call) throws JSONException {
+        if (!call.hasOption("fields")) {
+            return null;
+        }
 
-                AcquireTokenSilentParameters parameters = builder.build();
-                IAuthenticationResult silentAuthResult = context.acquireTokenSilent(parameters);
-                IAccount account = silentAuthResult.getAccount();
+        return new HashSet<>(call.getArray("fields").<String>toList());
+    }
 
-                TokenResult tokenResult = new TokenResult();
-                tokenResult.setAccessToken(silentAuthResult.getAccessToken());
-                tokenResult.setIdToken(account.getIdToken());
-                tokenResult.setScopes(silentAuthResult.getScope());
+    JSObject createTokenResultObject(TokenResult tokenResult) {
+        return createTokenResultObject(tokenResult, null, null);
+    }
 
-                callback.tokenReceived(tokenResult);
+    private JSObject createLoginResultObject(TokenResult tokenResult, Set<String> fields, String knownTokenHash, List<String> claims) {
+        JSObject result = createTokenResultObject(tokenResult, fields, knownTokenHash);
+        if (claims != null) {
+            result.put("claims", createClaimsObject(tokenResult, claims));
+        }
 
-                return;
-            } catch (MsalUiRequiredException ex) {
-                Logger.error("Silent login failed", ex);
+        return result;
+    }
+
+    /**
+     * Builds the result for JS. Only the given fields are included, or all of them when fields is null. When the caller
+     * already holds the access token with the given hash, only the expiry is sent back with the unchanged flag.
+     */
+    JSObject createTokenResultObject(TokenResult tokenResult, Set<String> fields, String knownTokenHash) {
+        JSObject result = new JSObject();
+        if (knownTokenHash != null && knownTokenHash.equals(tokenResult.getAccessTokenHash())) {
+            result.put("unchanged", true);
+            fields = EXPIRY_FIELDS;
+        }
+
+        if (fields == null || fields.contains("accessToken")) {
+            result.put("accessToken", tokenResult.getAccessToken());
+        }
+        if (fields == null || fields.contains("idToken")) {
+            result.put("idToken", tokenResult.getIdToken());
+        }
+        if (fields == null || fields.contains("scopes")) {
+            result.put("scopes", new JSONArray(Arrays.asList(tokenResult.getScopes())));
+        }
+        if ((fields == null || fields.contains("expiresOn")) && tokenResult.getExpiresOn() != null) {
+            result.put("expiresOn", tokenResult.getExpiresOn().getTime());
+        }
+        if (fields == null || fields.contains("tokenHash")) {
+            result.put("tokenHash", tokenResult.getAccessTokenHash());
+        }
+        if ((fields == null || fields.contains("account")) && tokenResult.getAccountId() != null) {
+            result.put("account", createAccountObject(tokenResult.getAccountId(), tokenResult.getUsername()));
+        }
+
+        return result;
+    }
+
+    private JSObject createAccountObject(String accountId, String username) {
+        JSObject account = new JSObject();
+        account.put("id", accountId);
+        account.put("username", username);
+
+        return account;
+    }
+
+    private JSObject createClaimsObject(TokenResult tokenResult, List<String> requestedClaims) {
+        JSONObject idTokenClaims = claimsCache.getClaims(tokenResult.getAccountId(), tokenResult.getIdToken());
+        JSONObject accessTokenClaims = null;
+
+        // Claims are looked up in the ID token first, the access token is only decoded when a claim is missing there
+        JSObject claims = new JSObject();
+        for (String name : requestedClaims) {
+            Object value = idTokenClaims != null ? idTokenClaims.opt(name) : null;
+            if (value == null) {
+                if (accessTokenClaims == null) {
+                    accessTokenClaims = claimsCache.getClaims(tokenResult.getAccountId(), tokenResult.getAccessToken());
+                }
+
+                value = accessTokenClaims != null ? accessTokenClaims.opt(name) : null;
+            }
+
+            if (value != null) {
+                claims.put(name, value);
             }
         }
 
-        Logger.info("Starting interactive login flow");
-        AcquireTokenParameters.Builder params = new AcquireTokenParameters.Builder()
-            .startAuthorizationFromActivity(this.getActivity())
-            .withScopes(scopes)
-            .withPrompt(prompt)
-            .withCallback(
-                new AuthenticationCallback() {
-                    @Override
-                    public void onCancel() {
-                        Logger.info("Login cancelled");
-                        callback.tokenReceived(null);
-                    }
+        return claims;
+    }
 
-                    @Override
-                    public void onSuccess(IAuthenticationResult authenticationResult) {
-                        TokenResult tokenResult = new TokenResult();
+    private JSObject createBatchResultObject(Map<String, TokenResult> results, Map<String, Exception> errors) {
+        JSObject resultObjects = new JSObject();
+        for (Map.Entry<String, TokenResult> result : results.entrySet()) {
+            resultObjects.put(result.getKey(), createTokenResultObject(result.getValue()));
+        }
 
-                        IAccount account = authenticationResult.getAccount();
-                        tokenResult.setAccessToken(authenticationResult.getAccessToken());
-                        tokenResult.setIdToken(account.getIdToken());
-                        tokenResult.setScopes(authenticationResult.getScope());
+        JSObject errorObjects = new JSObject();
+        for (Map.Entry<String, Exception> error : errors.entrySet()) {
+            JSObject errorObject = new JSObject();
+            errorObject.put("message", error.getValue().getMessage());
+            if (error.getValue() instanceof MsalException) {
+                errorObject.put("code", ((MsalException) error.getValue()).getErrorCode());
+            } else if (error.getValue() instanceof TimeoutException) {
+                errorObject.put("code", "timeout");
+            } else if (error.getValue() instanceof OfflineException) {
+                errorObject.put("code", "offline");
+            } else if (error.getValue() instanceof CancellationException) {
+                errorObject.put("code", "cancelled");
+            } else if (error.getValue() instanceof InteractionRequiredException) {
+                errorObject.put("code", "interaction_required");
+            }
 
-                        callback.tokenReceived(tokenResult);
-                    }
+            errorObjects.put(error.getKey(), errorObject);
+        }
 
-                    @Override
-                    public void onError(MsalException ex) {
-                        Logger.error("Unable to acquire token interactively", ex);
-                        callback.tokenReceived(null);
-                    }
+        JSObject batchResult = new JSObject();
+        batchResult.put("results", resultObjects);
+        batchResult.put("errors", errorObjects);
+
+        return batchResult;
+    }
+
+    private synchronized void setMetricsStreamInterval(long intervalMillis) {
+        if (metricsStream != null) {
+            metricsStream.cancel(false);
+            metricsStream = null;
+        }
+
+        if (intervalMillis > 0) {
+            metricsStream = scheduler.scheduleWithFixedDelay(
+                () -> notifyListeners("metrics", createMetricsObject()),
+                intervalMillis,
+                intervalMillis,
+                TimeUnit.MILLISECONDS
+            );
+        }
+    }
+
+    private JSObject createMetricsObject() {
+        JSObject phases = new JSObject();
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            LatencyRecorder recorder = metrics.get(phase);
+            JSObject phaseObject = new JSObject();
+            phaseObject.put("count", recorder.getCount());
+            phaseObject.put("errors", recorder.getErrorCount());
+            phaseObject.put("meanMs", recorder.getMeanMillis());
+            phaseObject.put("p50Ms", recorder.getPercentileMillis(50));
+            phaseObject.put("p95Ms", recorder.getPercentileMillis(95));
+            phaseObject.put("p99Ms", recorder.getPercentileMillis(99));
+            phaseObject.put("maxMs", recorder.getMaxMillis());
+            phases.put(phase.getKey(), phaseObject);
+        }
+
+        JSObject contextCacheObject = new JSObject();
+        contextCacheObject.put("hits", contextCache.getHitCount());
+        contextCacheObject.put("misses", contextCache.getMissCount());
+
+        JSObject tokenCacheObject = new JSObject();
+        tokenCacheObject.put("hits", tokenCache.getHitCount());
+        tokenCacheObject.put("misses", tokenCache.getMissCount());
+        tokenCacheObject.put("supersetHits", tokenCache.getSupersetHitCount());
+
+        JSObject currentAccountCacheObject = new JSObject();
+        currentAccountCacheObject.put("hits", currentAccountCache.getHitCount());
+        currentAccountCacheObject.put("misses", currentAccountCache.getMissCount());
+
+        JSObject result = new JSObject();
+        result.put("phases", phases);
+        result.put("contextCache", contextCacheObject);
+        result.put("tokenCache", tokenCacheObject);
+        result.put("currentAccountCache", currentAccountCacheObject);
+
+        JSObject countersObject = new JSObject();
+        for (Metrics.Counter counter : Metrics.Counter.values()) {
+            countersObject.put(counter.getKey(), metrics.get(counter));
+        }
+        result.put("counters", countersObject);
+        result.put("coalescedRequests", inFlightRequests.getCoalescedCount());
+
+        return result;
+    }
+
+    private JSObject createDiagnosticsObject() {
+        JSONArray entries = new JSONArray();
+        for (DiagnosticLog.Entry entry : diagnosticLog.getEntries()) {
+            JSObject entryObject = new JSObject();
+            entryObject.put("timestamp", entry.getTimestamp());
+            entryObject.put("level", entry.getLevel().getKey());
+            entryObject.put("source", entry.getSource());
+            entryObject.put("message", entry.getMessage());
+            if (entry.getError() != null) {
+                entryObject.put("error", entry.getError());
+            }
+            if (entry.getCount() > 1) {
+                entryObject.put("count", entry.getCount());
+                entryObject.put("lastTimestamp", entry.getLastTimestamp());
+            }
+            entries.put(entryObject);
+        }
+
+        JSObject result = new JSObject();
+        result.put("logLevel", diagnosticLog.getLevel().getKey());
+        result.put("entries", entries);
+        result.put("droppedEntries", diagnosticLog.getDroppedCount());
+        result.put("pendingRequests", pendingRequests.size());
+        result.put("inFlightRequests", inFlightRequests.size());
+        result.put("offline", connectivityMonitor != null && !connectivityMonitor.isConnected());
+
+        return result;
+    }
+
+    /**
+     * Returns the account to use for a request. Single account applications always use the current account, multiple
+     * account applications look the account up by id or username, or use the only signed in account without one.
+     */
+    IAccount loadAccount(final ContextConfiguration configuration, IPublicClientApplication context, String accountId)
+        throws Exception {
+        if (context instanceof IMultipleAccountPublicClientApplication) {
+            final IMultipleAccountPublicClientApplication multipleAccountContext = (IMultipleAccountPublicClientApplication) context;
+
+            return this.getAccountIndex(context).find(accountId, () -> this.loadAllAccounts(multipleAccountContext));
+        }
+
+        final ISingleAccountPublicClientApplication singleAccountContext = (ISingleAccountPublicClientApplication) context;
+
+        return currentAccountCache.get(context, () -> {
+            ICurrentAccountResult currentAccountResult = this.loadCurrentAccount(singleAccountContext);
+            if (currentAccountResult == null) {
+                return null;
+            }
+
+            // MSAL reports when the account changed outside of this plugin, e.g. through the broker on a shared device
+            if (currentAccountResult.didAccountChange() && currentAccountResult.getPriorAccount() != null) {
+                IAccount priorAccount = currentAccountResult.getPriorAccount();
+                IAccount account = currentAccountResult.getCurrentAccount();
+                forgetAccount(configuration, priorAccount.getId());
+                if (account == null) {
+                    tokenEvents().signedOut(priorAccount.getId(), priorAccount.getUsername());
+                } else {
+                    tokenEvents().forgetAccount(priorAccount.getId());
                 }
+                tokenEvents().accountChanged(
+                    getAuthorityUrl(context),
+                    account != null ? account.getId() : null,
+                    account != null ? account.getUsername() : null,
+                    priorAccount.getId(),
+                    priorAccount.getUsername()
+                );
+            }
+
+            return currentAccountResult.getCurrentAccount();
+        });
+    }
+
+    private List<IAccount> loadAccounts(ContextConfiguration configuration, IPublicClientApplication context) throws Exception {
+        if (context instanceof IMultipleAccountPublicClientApplication) {
+            final IMultipleAccountPublicClientApplication multipleAccountContext = (IMultipleAccountPublicClientApplication) context;
+
+            return this.getAccountIndex(context).getAll(() -> this.loadAllAccounts(multipleAccountContext));
+        }
+
+        IAccount account = this.loadAccount(configuration, context, null);
+
+        return account != null ? Collections.singletonList(account) : Collections.emptyList();
+    }
+
+    private List<IAccount> loadAllAccounts(IMultipleAccountPublicClientApplication context) throws MsalException, InterruptedException {
+        long startTime = System.nanoTime();
+        try {
+            List<IAccount> accounts = context.getAccounts();
+            metrics.record(Metrics.Phase.CURRENT_ACCOUNT, startTime, false);
+
+            return accounts;
+        } catch (Exception ex) {
+            metrics.record(Metrics.Phase.CURRENT_ACCOUNT, startTime, true);
+            throw ex;
+        }
+    }
+
+    private AccountIndex getAccountIndex(IPublicClientApplication context) {
+        return ConcurrentMaps.getOrCreate(accountIndexes, context, AccountIndex::new);
+    }
+
+    void rememberAccount(ContextConfiguration configuration, IPublicClientApplication context, IAccount account) {
+        if (context instanceof IMultipleAccountPublicClientApplication) {
+            this.getAccountIndex(context).put(account);
+            return;
+        }
+
+        IAccount priorAccount = currentAccountCache.put(context, account);
+        if (priorAccount != null && !priorAccount.getId().equals(account.getId())) {
+            forgetAccount(configuration, priorAccount.getId());
+            tokenEvents().forgetAccount(priorAccount.getId());
+            tokenEvents().accountChanged(
+                getAuthorityUrl(context),
+                account.getId(),
+                account.getUsername(),
+                priorAccount.getId(),
+                priorAccount.getUsername()
             );
+        }
+    }
+
+    void invalidateAccount(IPublicClientApplication context) {
+        currentAccountCache.invalidate(context);
+    }
+
+    private static String getRefreshGroup(ContextConfiguration configuration, String accountId) {
+        return configuration.getFingerprint() + "|" + accountId;
+    }
+
+    private static String getTokenKey(ContextConfiguration configuration, String accountId, List<String> scopes) {
+        return getRefreshGroup(configuration, accountId) + "|" + ScopeSet.of(scopes).getKey();
+    }
+
+    private ICurrentAccountResult loadCurrentAccount(ISingleAccountPublicClientApplication context)
+        throws MsalException, InterruptedException {
+        long startTime = System.nanoTime();
+        try {
+            ICurrentAccountResult currentAccountResult = context.getCurrentAccount();
+            metrics.record(Metrics.Phase.CURRENT_ACCOUNT, startTime, false);
 
-        if (result.getCurrentAccount() != null) {
-            // Set loginHint otherwise MSAL throws an exception because of mismatched account
-            params.withLoginHint(result.getCurrentAccount().getUsername());
+            return currentAccountResult;
+        } catch (Exception ex) {
+            metrics.record(Metrics.Phase.CURRENT_ACCOUNT, startTime, true);
+            throw ex;
+        }
+    }
+
+    static boolean isTransientError(Exception ex) {
+        if (ex instanceof MsalUiRequiredException) {
+            return false;
+        }
+
+        if (ex instanceof MsalServiceException) {
+            int httpStatusCode = ((MsalServiceException) ex).getHttpStatusCode();
+            if (httpStatusCode == 429 || httpStatusCode >= 500) {
+                return true;
+            }
+        }
+
+        if (ex instanceof MsalException && ((MsalException) ex).getErrorCode() != null) {
+            switch (((MsalException) ex).getErrorCode()) {
+                case "io_error":
+                case "device_network_not_available":
+                case "request_timeout":
+                case "service_not_available":
+                    return true;
+            }
         }
 
-        context.acquireToken(params.build());
+        return ex.getCause() instanceof IOException;
     }
 
-    private ISingleAccountPublicClientApplication createContextFromPluginCall(PluginCall call)
-        throws MsalException, InterruptedException, IOException, JSONException {
+    private static boolean isUnavailableError(Exception ex) {
+        return (
+            isTransientError(ex) || (ex instanceof MsalClientException && "circuit_open".equals(((MsalClientException) ex).getErrorCode()))
+        );
+    }
+
+    private JSObject createTokenEventObject(TokenResult tokenResult, boolean includeToken) {
+        JSObject data = new JSObject();
+        if (includeToken) {
+            data.put("accessToken", tokenResult.getAccessToken());
+        }
+        data.put("scopes", new JSONArray(Arrays.asList(tokenResult.getScopes())));
+        if (tokenResult.getExpiresOn() != null) {
+            data.put("expiresOn", tokenResult.getExpiresOn().getTime());
+        }
+        if (tokenResult.getAccountId() != null) {
+            data.put("account", createAccountObject(tokenResult.getAccountId(), tokenResult.getUsername()));
+        }
+
+        return data;
+    }
+
+    /**
+     * The deadline covers the whole request, including an interactive flow the user may never finish.
+     */
+    private void scheduleDeadline(final PendingRequests.Request request, final long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            return;
+        }
+
+        final ScheduledFuture<?> deadline = scheduler.schedule(
+            () -> request.tokenFailed(new TimeoutException("Token request timed out after " + timeoutMillis + "ms.")),
+            timeoutMillis,
+            TimeUnit.MILLISECONDS
+        );
+        request.onRelease(() -> deadline.cancel(false));
+    }
+
+    private void runInBackground(PluginCall call, Runnable task) {
+        try {
+            getExecutor().execute(task);
+        } catch (RejectedExecutionException ex) {
+            logger.error("Unable to schedule authentication request", ex);
+            call.reject("Too many pending authentication requests.", "busy");
+        }
+    }
+
+    private static ThreadPoolExecutor createAuthExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_WORKER_THREADS,
+            MAX_WORKER_THREADS,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(MAX_PENDING_TASKS),
+            createThreadFactory("msauth-worker")
+        );
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    private static ThreadFactory createThreadFactory(final String name) {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        };
+    }
+
+    IPublicClientApplication createContextFromPluginCall(PluginCall call) throws Exception {
+        ContextConfiguration configuration = this.createConfigurationFromPluginCall(call);
+        if (configuration == null) {
+            return null;
+        }
+
+        return this.createContext(configuration);
+    }
+
+    private TokenClient createTokenClient(ContextConfiguration configuration, IPublicClientApplication context) {
+        return new MsalTokenClient(this, configuration, context, getAuthorityUrl(context));
+    }
+
+    private IPublicClientApplication createContext(final ContextConfiguration configuration) throws Exception {
+        return contextCache.getOrCreate(configuration.getFingerprint(), () -> this.buildContext(configuration));
+    }
+
+    private ContextConfiguration createConfigurationFromPluginCall(PluginCall call) {
         String clientId = call.getString("clientId");
         String domainHint = call.getString("domainHint");
         String tenant = call.getString("tenant");
@@ -218,6 +1561,7 @@ public class MsAuthPlugin extends Plugin {
         String authorityTypeString = call.getString("authorityType", AuthorityType.AAD.name());
         String authorityUrl = call.getString("authorityUrl");
         Boolean brokerRedirectUriRegistered = call.getBoolean("brokerRedirectUriRegistered", false);
+        String accountModeString = call.getString("accountMode");
 
         if (keyHash == null || keyHash.length() == 0) {
             call.reject("Invalid key hash specified.");
@@ -236,71 +1580,61 @@ public class MsAuthPlugin extends Plugin {
             return null;
         }
 
-        return this.createContext(clientId, domainHint, tenant, authorityType, authorityUrl, keyHash, brokerRedirectUriRegistered);
-    }
-
-    private ISingleAccountPublicClientApplication createContext(
-        String clientId,
-        String domainHint,
-        String tenant,
-        AuthorityType authorityType,
-        String customAuthorityUrl,
-        String keyHash,
-        Boolean brokerRedirectUriRegistered
-    ) throws MsalException, InterruptedException, IOException, JSONException {
-        String tenantId = (tenant != null ? tenant : "common");
-        String authorityUrl = customAuthorityUrl != null ? customAuthorityUrl : "https://login.microsoftonline.com/" + tenantId;
-        String urlEncodedKeyHash = URLEncoder.encode(keyHash, "UTF-8");
-        String redirectUri = "msauth://" + getActivity().getApplicationContext().getPackageName() + "/" + urlEncodedKeyHash;
-
-        JSONObject configFile = new JSONObject();
-        JSONObject authorityConfig = new JSONObject();
-
-        switch (authorityType) {
-            case AAD:
-                authorityConfig.put("type", AuthorityType.AAD.name());
-                authorityConfig.put("authority_url", authorityUrl);
-                authorityConfig.put("audience", (new JSONObject()).put("type", "AzureADMultipleOrgs").put("tenant_id", tenantId));
-                configFile.put("broker_redirect_uri_registered", brokerRedirectUriRegistered);
-                break;
-            case B2C:
-                authorityConfig.put("type", AuthorityType.B2C.name());
-                authorityConfig.put("authority_url", authorityUrl);
-                authorityConfig.put("default", "true");
-                break;
-            case CIAM:
-                authorityConfig.put("type", AuthorityType.CIAM.name()).put("authority_url", authorityUrl);
-                break;
+        AccountMode accountMode;
+        if (accountModeString == null || AccountMode.SINGLE.name().equals(accountModeString)) {
+            accountMode = AccountMode.SINGLE;
+        } else if (AccountMode.MULTIPLE.name().equals(accountModeString)) {
+            accountMode = AccountMode.MULTIPLE;
+        } else {
+            call.reject("Invalid accountMode specified. Only SINGLE and MULTIPLE are supported.");
+            return null;
         }
 
-        configFile.put("client_id", clientId);
-        configFile.put("domain_hint", domainHint);
-        configFile.put("authorization_user_agent", "DEFAULT");
-        configFile.put("redirect_uri", redirectUri);
-        configFile.put("account_mode", "SINGLE");
-        configFile.put("authorities", (new JSONArray()).put(authorityConfig));
-
-        File config = writeJSONObjectConfig(configFile);
-        ISingleAccountPublicClientApplication app = publicClientApplicationFactory.createSingleAccountPublicClientApplication(
-            getContext().getApplicationContext(),
-            config
+        return new ContextConfiguration(
+            clientId,
+            domainHint,
+            tenant,
+            authorityType,
+            authorityUrl,
+            keyHash,
+            Boolean.TRUE.equals(brokerRedirectUriRegistered),
+            accountMode
         );
+    }
 
-        if (!config.delete()) {
-            Logger.warn("Warning! Unable to delete config file.");
+    private IPublicClientApplication buildContext(ContextConfiguration configuration)
+        throws MsalException, InterruptedException, IOException, JSONException {
+        long startTime = System.nanoTime();
+        JSONObject configFile;
+        try {
+            configFile = MsalConfigFile.build(configuration, getActivity().getApplicationContext().getPackageName());
+            metrics.record(Metrics.Phase.CONFIG_BUILD, startTime, false);
+        } catch (Exception ex) {
+            metrics.record(Metrics.Phase.CONFIG_BUILD, startTime, true);
+            throw ex;
         }
 
-        return app;
-    }
+        startTime = System.nanoTime();
+        File config;
+        try {
+            config = MsalConfigFile.write(new File(getContext().getFilesDir(), CONFIG_DIRECTORY), configFile);
+            metrics.record(Metrics.Phase.CONFIG_WRITE, startTime, false);
+        } catch (Exception ex) {
+            metrics.record(Metrics.Phase.CONFIG_WRITE, startTime, true);
+            throw ex;
+        }
 
-    private File writeJSONObjectConfig(JSONObject data) throws IOException {
-        File config = new File(getActivity().getFilesDir() + "auth_config.json");
+        startTime = System.nanoTime();
+        try {
+            IPublicClientApplication app = configuration.getAccountMode() == AccountMode.MULTIPLE
+                ? publicClientApplicationFactory.createMultipleAccountPublicClientApplication(getContext().getApplicationContext(), config)
+                : publicClientApplicationFactory.createSingleAccountPublicClientApplication(getContext().getApplicationContext(), config);
+            metrics.record(Metrics.Phase.CONTEXT_CREATE, startTime, false);
 
-        try (FileWriter writer = new FileWriter(config, false)) {
-            writer.write(data.toString());
-            writer.flush();
+            return app;
+        } catch (Exception ex) {
+            metrics.record(Metrics.Phase.CONTEXT_CREATE, startTime, true);
+            throw ex;
         }
-
-        return config;
     }
 }
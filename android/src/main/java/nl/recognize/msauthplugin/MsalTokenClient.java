@@ -0,0 +1,144 @@
+package nl.recognize.msauthplugin;
+
+import com.microsoft.identity.client.AcquireTokenParameters;
+import com.microsoft.identity.client.AcquireTokenSilentParameters;
+import com.microsoft.identity.client.AuthenticationCallback;
+import com.microsoft.identity.client.IAccount;
+import com.microsoft.identity.client.IAuthenticationResult;
+import com.microsoft.identity.client.IPublicClientApplication;
+import com.microsoft.identity.client.Prompt;
+import com.microsoft.identity.client.exception.MsalException;
+import com.microsoft.identity.client.exception.MsalUiRequiredException;
+import java.util.List;
+
+/**
+ * Runs the requests of the token flows against an MSAL public client application. Accounts are loaded and remembered
+ * through the plugin, which caches them per application.
+ */
+class MsalTokenClient implements TokenClient {
+
+    private static final class MsalAccount implements Account {
+
+        private final IAccount account;
+
+        private MsalAccount(IAccount account) {
+            this.account = account;
+        }
+
+        @Override
+        public String getId() {
+            return account.getId();
+        }
+
+        @Override
+        public String getUsername() {
+            return account.getUsername();
+        }
+    }
+
+    private final MsAuthPlugin plugin;
+    private final ContextConfiguration configuration;
+    private final IPublicClientApplication context;
+    private final String authority;
+
+    MsalTokenClient(MsAuthPlugin plugin, ContextConfiguration configuration, IPublicClientApplication context, String authority) {
+        this.plugin = plugin;
+        this.configuration = configuration;
+        this.context = context;
+        this.authority = authority;
+    }
+
+    @Override
+    public String getNamespace() {
+        return configuration.getFingerprint();
+    }
+
+    @Override
+    public String getAuthority() {
+        return authority;
+    }
+
+    @Override
+    public Account loadAccount(String accountId) throws Exception {
+        IAccount account = plugin.loadAccount(configuration, context, accountId);
+
+        return account != null ? new MsalAccount(account) : null;
+    }
+
+    @Override
+    public TokenResult acquireTokenSilently(Account account, List<String> scopes, boolean forceRefresh) throws Exception {
+        AcquireTokenSilentParameters parameters = new AcquireTokenSilentParameters.Builder()
+            .withScopes(scopes)
+            .fromAuthority(authority)
+            .forAccount(((MsalAccount) account).account)
+            .forceRefresh(forceRefresh)
+            .build();
+
+        try {
+            return createTokenResult(context.acquireTokenSilent(parameters));
+        } catch (MsalUiRequiredException ex) {
+            throw new InteractionRequiredException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void acquireTokenInteractively(
+        Account account,
+        List<String> scopes,
+        List<String> otherScopes,
+        String prompt,
+        final TokenResultCallback callback
+    ) {
+        AcquireTokenParameters.Builder params = new AcquireTokenParameters.Builder()
+            .startAuthorizationFromActivity(plugin.getActivity())
+            .withScopes(scopes)
+            .withPrompt(Prompt.valueOf(prompt))
+            .withCallback(
+                new AuthenticationCallback() {
+                    @Override
+                    public void onCancel() {
+                        callback.tokenReceived(null);
+                    }
+
+                    @Override
+                    public void onSuccess(IAuthenticationResult authenticationResult) {
+                        plugin.rememberAccount(configuration, context, authenticationResult.getAccount());
+                        callback.tokenReceived(createTokenResult(authenticationResult));
+                    }
+
+                    @Override
+                    public void onError(MsalException ex) {
+                        callback.tokenFailed(ex);
+                    }
+                }
+            );
+
+        if (!otherScopes.isEmpty()) {
+            params.withOtherScopesToAuthorize(otherScopes);
+        }
+
+        if (account != null) {
+            // Set loginHint otherwise MSAL throws an exception because of mismatched account
+            params.withLoginHint(account.getUsername());
+        }
+
+        context.acquireToken(params.build());
+    }
+
+    @Override
+    public void invalidateAccount() {
+        plugin.invalidateAccount(context);
+    }
+
+    private static TokenResult createTokenResult(IAuthenticationResult authenticationResult) {
+        TokenResult tokenResult = new TokenResult();
+        tokenResult.setAccessToken(authenticationResult.getAccessToken());
+        tokenResult.setIdToken(authenticationResult.getAccount().getIdToken());
+        tokenResult.setScopes(authenticationResult.getScope());
+        tokenResult.setExpiresOn(authenticationResult.getExpiresOn());
+        tokenResult.setAccountId(authenticationResult.getAccount().getId());
+        tokenResult.setUsername(authenticationResult.getAccount().getUsername());
+
+        return tokenResult;
+    }
+}
@@ -3,6 +3,7 @@ package nl.recognize.msauthplugin;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.microsoft.identity.client.IMultipleAccountPublicClientApplication;
 import com.microsoft.identity.client.ISingleAccountPublicClientApplication;
 import com.microsoft.identity.client.exception.MsalException;
 import java.io.File;
@@ -12,4 +13,15 @@ public interface PublicClientApplicationFactory {
         @NonNull final Context context,
         @Nullable final File configFile
     ) throws InterruptedException, MsalException;
+
+    /**
+     * Only needed for the multiple account mode, factories written before it was added keep working in single account
+     * mode.
+     */
+    default IMultipleAccountPublicClientApplication createMultipleAccountPublicClientApplication(
+        @NonNull final Context context,
+        @Nullable final File configFile
+    ) throws InterruptedException, MsalException {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support the multiple account mode.");
+    }
 }
@@ -0,0 +1,189 @@
+package nl.recognize.msauthplugin;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.microsoft.identity.client.*;
+import com.microsoft.identity.client.exception.MsalServiceException;
+import com.microsoft.identity.client.exception.MsalUiRequiredException;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the authority of a single tenant as seen by one client, exposed through a stub-only single account MSAL
+ * application. Silent requests take a configurable time, fail at a configurable rate and issue tokens with a
+ * configurable lifetime. Every access token names the client, tenant and account it was issued for, so tokens handed
+ * out for the wrong client or tenant can be told apart.
+ */
+class FakeAuthority {
+
+    private final String clientId;
+    private final String tenant;
+    private final String authorityUrl;
+    private final IAccount account;
+    private final ISingleAccountPublicClientApplication application;
+    private final MsalServiceException unavailableException;
+    private final MsalUiRequiredException uiRequiredException;
+    private final Random random;
+    private final AtomicInteger issuedTokens = new AtomicInteger();
+    private final AtomicInteger silentRequests = new AtomicInteger();
+    private final AtomicInteger failedRequests = new AtomicInteger();
+    private final AtomicInteger interactiveRequests = new AtomicInteger();
+    private final AtomicInteger signOuts = new AtomicInteger();
+    private volatile boolean signedIn = true;
+    private volatile long silentLatencyMillis;
+    private volatile long interactiveLatencyMillis;
+    private volatile double failureRate;
+    private volatile long tokenLifetimeMillis = 3600_000;
+
+    FakeAuthority(String clientId, String tenant, long seed) throws Exception {
+        this.clientId = clientId;
+        this.tenant = tenant;
+        this.authorityUrl = "https://login.example.com/" + tenant;
+        this.random = new Random(seed);
+
+        account = mock(IAccount.class, withSettings().stubOnly());
+        when(account.getId()).thenReturn("account-" + tenant);
+        when(account.getUsername()).thenReturn("user@" + tenant + ".example.com");
+        when(account.getIdToken()).thenReturn(MsAuthPluginTest.ID_TOKEN);
+
+        unavailableException = mock(MsalServiceException.class, withSettings().stubOnly());
+        when(unavailableException.getHttpStatusCode()).thenReturn(503);
+        when(unavailableException.getMessage()).thenReturn("Service unavailable");
+        uiRequiredException = mock(MsalUiRequiredException.class, withSettings().stubOnly());
+        when(uiRequiredException.getMessage()).thenReturn("No account signed in");
+
+        application = mock(ISingleAccountPublicClientApplication.class, withSettings().stubOnly());
+        when(application.getCurrentAccount()).thenAnswer(invocation -> new CurrentAccountResult(signedIn ? account : null, null, false));
+        when(application.acquireTokenSilent(any())).thenAnswer(invocation -> acquireTokenSilent(invocation.getArgument(0)));
+        doAnswer(invocation -> {
+            acquireToken(invocation.getArgument(0));
+            return null;
+        })
+            .when(application)
+            .acquireToken(any());
+        doAnswer(invocation -> {
+            signedIn = false;
+            signOuts.incrementAndGet();
+            ((ISingleAccountPublicClientApplication.SignOutCallback) invocation.getArgument(0)).onSignOut();
+            return null;
+        })
+            .when(application)
+            .signOut(any(ISingleAccountPublicClientApplication.SignOutCallback.class));
+    }
+
+    FakeAuthority withSilentLatency(long latencyMillis) {
+        this.silentLatencyMillis = latencyMillis;
+        return this;
+    }
+
+    FakeAuthority withInteractiveLatency(long latencyMillis) {
+        this.interactiveLatencyMillis = latencyMillis;
+        return this;
+    }
+
+    FakeAuthority withFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    FakeAuthority withTokenLifetime(long lifetimeMillis) {
+        this.tokenLifetimeMillis = lifetimeMillis;
+        return this;
+    }
+
+    String getClientId() {
+        return clientId;
+    }
+
+    String getTenant() {
+        return tenant;
+    }
+
+    String getAuthorityUrl() {
+        return authorityUrl;
+    }
+
+    String getAccountId() {
+        return account.getId();
+    }
+
+    ISingleAccountPublicClientApplication getApplication() {
+        return application;
+    }
+
+    /**
+     * Whether the access token was issued by this authority.
+     */
+    boolean isIssuedHere(String accessToken) {
+        return accessToken != null && accessToken.startsWith(clientId + "|" + tenant + "|" + account.getId() + "|");
+    }
+
+    int getSilentRequestCount() {
+        return silentRequests.get();
+    }
+
+    int getFailedRequestCount() {
+        return failedRequests.get();
+    }
+
+    int getInteractiveRequestCount() {
+        return interactiveRequests.get();
+    }
+
+    int getSignOutCount() {
+        return signOuts.get();
+    }
+
+    private IAuthenticationResult acquireTokenSilent(AcquireTokenSilentParameters parameters) throws Exception {
+        silentRequests.incrementAndGet();
+        sleep(silentLatencyMillis);
+
+        if (nextDouble() < failureRate) {
+            failedRequests.incrementAndGet();
+            throw unavailableException;
+        }
+
+        if (!signedIn) {
+            throw uiRequiredException;
+        }
+
+        return issueToken(parameters.getScopes());
+    }
+
+    private void acquireToken(AcquireTokenParameters parameters) throws InterruptedException {
+        interactiveRequests.incrementAndGet();
+        sleep(interactiveLatencyMillis);
+
+        // The user always completes the prompt
+        signedIn = true;
+        parameters.getCallback().onSuccess(issueToken(parameters.getScopes()));
+    }
+
+    private IAuthenticationResult issueToken(List<String> scopes) {
+        IAuthenticationResult result = mock(IAuthenticationResult.class, withSettings().stubOnly());
+        when(result.getAccount()).thenReturn(account);
+        when(result.getAccessToken()).thenReturn(
+            clientId + "|" + tenant + "|" + account.getId() + "|" + issuedTokens.incrementAndGet()
+        );
+        when(result.getScope()).thenReturn(scopes.toArray(new String[0]));
+        when(result.getExpiresOn()).thenReturn(new Date(System.currentTimeMillis() + tokenLifetimeMillis));
+
+        return result;
+    }
+
+    private synchronized double nextDouble() {
+        return random.nextDouble();
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package nl.recognize.msauthplugin;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.content.Context;
+import androidx.appcompat.app.AppCompatActivity;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+import com.microsoft.identity.client.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Benchmarks for the plugin's native hot paths, run against stub-only mocks of the MSAL application and factory.
+ * Started through {@link MsAuthPluginBenchmarkTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MsAuthPluginBenchmark {
+
+    private MsAuthPlugin plugin;
+    private PluginCall configurationCall;
+    private PluginCall promptCall;
+    private PluginCall loginCall;
+    private TokenResult tokenResult;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File filesDir = Files.createTempDirectory("msauth-benchmark").toFile();
+
+        // Stub-only mocks don't record invocations, so they don't grow while being called millions of times
+        Context applicationContext = mock(Context.class, withSettings().stubOnly());
+        when(applicationContext.getPackageName()).thenReturn("nl.recognize.project-x");
+        final Context context = mock(Context.class, withSettings().stubOnly());
+        when(context.getApplicationContext()).thenReturn(applicationContext);
+        when(context.getFilesDir()).thenReturn(filesDir);
+        final AppCompatActivity activity = mock(AppCompatActivity.class, withSettings().stubOnly());
+        when(activity.getApplicationContext()).thenReturn(applicationContext);
+
+        tokenResult = new TokenResult();
+        tokenResult.setAccessToken("access-token-" + "x".repeat(1500));
+        tokenResult.setIdToken(MsAuthPluginTest.ID_TOKEN);
+        tokenResult.setScopes(new String[] { "mocked-scope", "openid", "profile" });
+        tokenResult.setExpiresOn(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+
+        IAccount account = mock(IAccount.class, withSettings().stubOnly());
+        when(account.getId()).thenReturn("account-id");
+        when(account.getIdToken()).thenReturn(MsAuthPluginTest.ID_TOKEN);
+        IAuthenticationResult authenticationResult = mock(IAuthenticationResult.class, withSettings().stubOnly());
+        when(authenticationResult.getAccount()).thenReturn(account);
+        when(authenticationResult.getAccessToken()).thenReturn(tokenResult.getAccessToken());
+        when(authenticationResult.getScope()).thenReturn(tokenResult.getScopes());
+        when(authenticationResult.getExpiresOn()).thenReturn(tokenResult.getExpiresOn());
+
+        ISingleAccountPublicClientApplication application = mock(ISingleAccountPublicClientApplication.class, withSettings().stubOnly());
+        when(application.getCurrentAccount()).thenReturn(new CurrentAccountResult(account, null, false));
+        when(application.acquireTokenSilent(any())).thenReturn(authenticationResult);
+
+        PublicClientApplicationFactory factory = mock(PublicClientApplicationFactory.class, withSettings().stubOnly());
+        when(factory.createSingleAccountPublicClientApplication(any(Context.class), any(File.class))).thenReturn(application);
+
+        plugin = new MsAuthPlugin(factory) {
+            @Override
+            public Context getContext() {
+                return context;
+            }
+
+            @Override
+            public AppCompatActivity getActivity() {
+                return activity;
+            }
+
+            @Override
+            protected String getLogTag() {
+                return "LogTag";
+            }
+
+            @Override
+            protected Executor getExecutor() {
+                return Runnable::run;
+            }
+
+            @Override
+            protected String getAuthorityUrl(IPublicClientApplication context) {
+                return MsAuthPluginTest.AUTHORITY_URL;
+            }
+        };
+
+        JSObject options = new JSObject();
+        options.put("clientId", MsAuthPluginTest.CLIENT_ID);
+        options.put("tenant", MsAuthPluginTest.TENANT);
+        options.put("domainHint", MsAuthPluginTest.DOMAIN_HINT);
+        options.put("keyHash", MsAuthPluginTest.KEY_HASH);
+        options.put("authorityUrl", MsAuthPluginTest.AUTHORITY_URL);
+        options.put("scopes", new JSArray(new String[] { "mocked-scope" }));
+        options.put("prompt", "consent");
+
+        // Calls without a message handler are fine for parsing, but can't be resolved
+        configurationCall = new PluginCall(null, "MsAuthPlugin", "1", "login", options);
+        promptCall = new PluginCall(null, "MsAuthPlugin", "2", "login", options);
+
+        loginCall = mock(PluginCall.class, withSettings().stubOnly());
+        when(loginCall.getString(any())).thenAnswer(invocation -> options.getString(invocation.getArgument(0)));
+        when(loginCall.getString(any(), any())).thenAnswer(invocation -> options.getString(invocation.getArgument(0), invocation.getArgument(1)));
+        when(loginCall.getBoolean(any(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(loginCall.getInt(any(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(loginCall.hasOption(any())).thenAnswer(invocation -> options.has(invocation.getArgument(0)));
+        when(loginCall.getArray("scopes")).thenReturn(new JSArray(new String[] { "mocked-scope" }));
+
+        // Warm the context and token caches for the cached benchmarks
+        plugin.createContextFromPluginCall(configurationCall);
+        plugin.login(loginCall);
+    }
+
+    @Benchmark
+    public Object createContextUncached() throws Exception {
+        plugin.clearContextCache();
+
+        return plugin.createContextFromPluginCall(configurationCall);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object createContextUncachedConcurrent() throws Exception {
+        plugin.clearContextCache();
+
+        return plugin.createContextFromPluginCall(configurationCall);
+    }
+
+    @Benchmark
+    public Object createContextCached() throws Exception {
+        return plugin.createContextFromPluginCall(configurationCall);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object createContextCachedConcurrent() throws Exception {
+        return plugin.createContextFromPluginCall(configurationCall);
+    }
+
+    @Benchmark
+    public Object parsePrompt() {
+        return plugin.getPromptFromPluginCall(promptCall);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object parsePromptConcurrent() {
+        return plugin.getPromptFromPluginCall(promptCall);
+    }
+
+    @Benchmark
+    public Object serializeTokenResult() {
+        return plugin.createTokenResultObject(tokenResult).toString();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object serializeTokenResultConcurrent() {
+        return plugin.createTokenResultObject(tokenResult).toString();
+    }
+
+    @Benchmark
+    public void loginCachedToken() {
+        plugin.login(loginCall);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void loginCachedTokenConcurrent() {
+        plugin.login(loginCall);
+    }
+}
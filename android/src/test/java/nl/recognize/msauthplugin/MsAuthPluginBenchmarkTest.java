@@ -0,0 +1,31 @@
+package nl.recognize.msauthplugin;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+@Tag("benchmark")
+class MsAuthPluginBenchmarkTest {
+
+    @Test
+    void runBenchmarks() throws RunnerException {
+        // The benchmarks run inside the test JVM, since a forked JVM would not get the Android unit test classpath
+        Options options = new OptionsBuilder()
+            .include(MsAuthPluginBenchmark.class.getName() + "." + System.getProperty("benchmark.include", ""))
+            .forks(0)
+            .warmupIterations(3)
+            .warmupTime(TimeValue.seconds(1))
+            .measurementIterations(5)
+            .measurementTime(TimeValue.seconds(1))
+            .resultFormat(ResultFormatType.JSON)
+            .result("build/reports/jmh/results.json")
+            .build();
+
+        new Runner(options).run();
+    }
+}
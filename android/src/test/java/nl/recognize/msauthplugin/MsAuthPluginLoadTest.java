@@ -0,0 +1,308 @@
+package nl.recognize.msauthplugin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.content.Context;
+import androidx.appcompat.app.AppCompatActivity;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+import com.microsoft.identity.client.*;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.spec.SecretKeySpec;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Fires concurrent logins and logouts for several tenants at the plugin, backed by {@link FakeAuthority} instances,
+ * and reports throughput and latency. Every tenant is used by two client ids, whose tokens for the same account and
+ * authority must not be mixed up. Only runs when requested: ./gradlew testDebugUnitTest -Pload. The number of
+ * operations and clients can be raised through the {@code load.operations} and {@code load.clients} properties.
+ */
+@Tag("load")
+class MsAuthPluginLoadTest {
+
+    private static final int TENANT_COUNT = 4;
+    private static final String[] CLIENT_IDS = { MsAuthPluginTest.CLIENT_ID, "9d1c6f52-0b3e-4f7a-8c2d-5e6f7a8b9c0d" };
+    private static final double LOGOUT_RATIO = 0.1;
+
+    @TempDir
+    File filesDir;
+
+    private final List<FakeAuthority> authorities = new ArrayList<>();
+    private final Map<String, FakeAuthority> authoritiesByKey = new ConcurrentHashMap<>();
+    private final Map<IPublicClientApplication, FakeAuthority> authoritiesByApplication = new ConcurrentHashMap<>();
+    private MsAuthPlugin plugin;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        for (int i = 0; i < TENANT_COUNT; i++) {
+            for (int j = 0; j < CLIENT_IDS.length; j++) {
+                FakeAuthority authority = new FakeAuthority(CLIENT_IDS[j], "tenant-" + i, i * CLIENT_IDS.length + j)
+                    .withSilentLatency(2)
+                    .withInteractiveLatency(5)
+                    .withFailureRate(0.05)
+                    // Short lived tokens make part of the logins miss the token cache and renew silently
+                    .withTokenLifetime(50);
+                authorities.add(authority);
+                authoritiesByKey.put(authority.getClientId() + "|" + authority.getTenant(), authority);
+                authoritiesByApplication.put(authority.getApplication(), authority);
+            }
+        }
+
+        Context applicationContext = mock(Context.class, withSettings().stubOnly());
+        when(applicationContext.getPackageName()).thenReturn("nl.recognize.project-x");
+        final Context context = mock(Context.class, withSettings().stubOnly());
+        when(context.getApplicationContext()).thenReturn(applicationContext);
+        when(context.getFilesDir()).thenReturn(filesDir);
+        final AppCompatActivity activity = mock(AppCompatActivity.class, withSettings().stubOnly());
+        when(activity.getApplicationContext()).thenReturn(applicationContext);
+
+        PublicClientApplicationFactory factory = mock(PublicClientApplicationFactory.class, withSettings().stubOnly());
+        when(factory.createSingleAccountPublicClientApplication(any(Context.class), any(File.class))).thenAnswer(invocation -> {
+            File configFile = invocation.getArgument(1);
+            JSONObject config = new JSONObject(new String(Files.readAllBytes(configFile.toPath()), StandardCharsets.UTF_8));
+            String tenant = config.getJSONArray("authorities").getJSONObject(0).getJSONObject("audience").getString("tenant_id");
+
+            return authoritiesByKey.get(config.getString("client_id") + "|" + tenant).getApplication();
+        });
+
+        // The plugin runs on its own bounded worker pool, like it does in the app
+        plugin = new MsAuthPlugin(factory) {
+            @Override
+            public Context getContext() {
+                return context;
+            }
+
+            @Override
+            public AppCompatActivity getActivity() {
+                return activity;
+            }
+
+            @Override
+            protected String getLogTag() {
+                return "LogTag";
+            }
+
+            @Override
+            protected String getMsalVersion() {
+                return "5.10.0";
+            }
+
+            @Override
+            protected String getAuthorityUrl(IPublicClientApplication context) {
+                return authoritiesByApplication.get(context).getAuthorityUrl();
+            }
+
+            @Override
+            protected KeyProvider createKeyProvider() {
+                return () -> new SecretKeySpec(new byte[32], "AES");
+            }
+
+            @Override
+            protected RetryPolicy createRetryPolicy(int maxRetries) {
+                return new RetryPolicy(maxRetries + 1, 1, 5);
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        plugin.handleOnDestroy();
+    }
+
+    @Test
+    void concurrentLoginsAndLogoutsExpectIsolatedTenantsAndSettledCalls() throws Exception {
+        final int operations = Integer.getInteger("load.operations", 400);
+        final int clients = Integer.getInteger("load.clients", 32);
+        final Random random = new Random(42);
+        final AtomicInteger started = new AtomicInteger();
+        final List<LoadCall> calls = Collections.synchronizedList(new ArrayList<>());
+        final LatencyRecorder loginLatency = new LatencyRecorder();
+        final LatencyRecorder logoutLatency = new LatencyRecorder();
+
+        // Closed loop clients: each one waits for its call to settle before it starts the next one
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        long startTime = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                futures.add(
+                    executor.submit(() -> {
+                        while (started.getAndIncrement() < operations) {
+                            FakeAuthority authority;
+                            boolean logout;
+                            synchronized (random) {
+                                authority = authorities.get(random.nextInt(authorities.size()));
+                                logout = random.nextDouble() < LOGOUT_RATIO;
+                            }
+
+                            LoadCall call = new LoadCall(authority, logout);
+                            calls.add(call);
+
+                            long callStartTime = System.nanoTime();
+                            if (logout) {
+                                plugin.logout(call.pluginCall);
+                            } else {
+                                plugin.login(call.pluginCall);
+                            }
+                            call.settled.get(30, TimeUnit.SECONDS);
+
+                            (logout ? logoutLatency : loginLatency).record(System.nanoTime() - callStartTime, call.errorCode != null);
+                        }
+
+                        return null;
+                    })
+                );
+            }
+
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long durationNanos = System.nanoTime() - startTime;
+
+        int mixups = 0;
+        int unexpectedErrors = 0;
+        for (LoadCall call : calls) {
+            assertEquals(1, call.settleCount.get(), "Every call is settled exactly once");
+
+            if (call.errorCode != null) {
+                // Only an authority that keeps failing may reject a call
+                if (!"unavailable".equals(call.errorCode)) {
+                    unexpectedErrors++;
+                }
+            } else if (!call.logout && !call.isForAuthority()) {
+                mixups++;
+            }
+        }
+
+        System.out.printf(
+            "%d operations by %d clients in %.0fms (%.0f ops/s)%n",
+            calls.size(),
+            clients,
+            durationNanos / 1e6,
+            calls.size() / (durationNanos / 1e9)
+        );
+        report("login", loginLatency);
+        report("logout", logoutLatency);
+        for (FakeAuthority authority : authorities) {
+            System.out.printf(
+                "%s/%s: %d silent (%d failed), %d interactive, %d sign outs%n",
+                authority.getClientId(),
+                authority.getTenant(),
+                authority.getSilentRequestCount(),
+                authority.getFailedRequestCount(),
+                authority.getInteractiveRequestCount(),
+                authority.getSignOutCount()
+            );
+        }
+
+        assertEquals(operations, calls.size());
+        assertEquals(0, mixups, "Tokens are only handed out for the client and tenant they were requested for");
+        assertEquals(0, unexpectedErrors);
+        assertTrue(loginLatency.getCount() - loginLatency.getErrorCount() > 0);
+        assertEquals(0, plugin.getPendingRequestCount(), "No login is left waiting");
+        assertEquals(0, plugin.getInFlightRequestCount(), "No MSAL operation is left without its callers");
+    }
+
+    private static void report(String name, LatencyRecorder recorder) {
+        System.out.printf(
+            "%s: %d calls, %d errors, mean %.1fms, p50 %.1fms, p95 %.1fms, p99 %.1fms, max %.1fms%n",
+            name,
+            recorder.getCount(),
+            recorder.getErrorCount(),
+            recorder.getMeanMillis(),
+            recorder.getPercentileMillis(50),
+            recorder.getPercentileMillis(95),
+            recorder.getPercentileMillis(99),
+            recorder.getMaxMillis()
+        );
+    }
+
+    /**
+     * A stub-only plugin call for one client and tenant that records how it was settled.
+     */
+    private static class LoadCall {
+
+        private final FakeAuthority authority;
+        private final boolean logout;
+        private final PluginCall pluginCall;
+        private final CompletableFuture<Void> settled = new CompletableFuture<>();
+        private final AtomicInteger settleCount = new AtomicInteger();
+        private volatile JSObject result;
+        private volatile String errorCode;
+
+        LoadCall(FakeAuthority authority, boolean logout) {
+            this.authority = authority;
+            this.logout = logout;
+
+            final JSObject options = new JSObject();
+            options.put("clientId", authority.getClientId());
+            options.put("tenant", authority.getTenant());
+            options.put("keyHash", MsAuthPluginTest.KEY_HASH);
+            options.put("authorityUrl", authority.getAuthorityUrl());
+            options.put("expiryMarginSeconds", 0);
+
+            pluginCall = mock(PluginCall.class, withSettings().stubOnly());
+            when(pluginCall.getString(any())).thenAnswer(invocation -> options.getString(invocation.getArgument(0)));
+            when(pluginCall.getString(any(), any())).thenAnswer(invocation ->
+                options.getString(invocation.getArgument(0), invocation.getArgument(1))
+            );
+            when(pluginCall.getBoolean(any(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+            when(pluginCall.getInt(any(), any())).thenAnswer(invocation ->
+                options.has(invocation.getArgument(0)) ? options.getInteger(invocation.getArgument(0)) : invocation.getArgument(1)
+            );
+            when(pluginCall.hasOption(any())).thenAnswer(invocation -> options.has(invocation.getArgument(0)));
+            when(pluginCall.getArray("scopes")).thenReturn(new JSArray(new String[] { "mocked-scope" }));
+
+            doAnswer(invocation -> settle(invocation.getArgument(0), null)).when(pluginCall).resolve(any(JSObject.class));
+            doAnswer(invocation -> settle(null, null)).when(pluginCall).resolve();
+            doAnswer(invocation -> settle(null, "error")).when(pluginCall).reject(anyString());
+            doAnswer(invocation -> settle(null, invocation.getArgument(1))).when(pluginCall).reject(anyString(), anyString());
+        }
+
+        boolean isForAuthority() throws Exception {
+            return (
+                authority.isIssuedHere(result.getString("accessToken")) &&
+                authority.getAccountId().equals(result.getJSObject("account").getString("id"))
+            );
+        }
+
+        private Void settle(JSObject result, String errorCode) {
+            this.result = result;
+            this.errorCode = errorCode;
+            settleCount.incrementAndGet();
+            settled.complete(null);
+
+            return null;
+        }
+    }
+}
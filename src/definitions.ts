@@ -1,3 +1,5 @@
+import type { PluginListenerHandle } from '@capacitor/core';
+
 export interface BaseOptions {
   clientId: string;
   tenant?: string;
@@ -7,18 +9,284 @@ export interface BaseOptions {
   knownAuthorities?: string[];
   keyHash?: string;
   brokerRedirectUriRegistered?: boolean;
+  /** Android only. Use 'MULTIPLE' to keep several accounts signed in, e.g. on shared devices. Defaults to 'SINGLE'. */
+  accountMode?: 'SINGLE' | 'MULTIPLE';
+}
+
+export interface AccountInfo {
+  id: string;
+  username?: string;
+}
+
+export interface InitializeOptions extends BaseOptions {
+  /** Also load the current account, so the first login doesn't have to. */
+  loadAccount?: boolean;
+}
+
+export interface InitializeResult {
+  /** Total time spent initializing, in milliseconds. */
+  durationMs: number;
+  /** Time spent creating the MSAL application, in milliseconds. */
+  contextDurationMs: number;
+  /** Time spent loading the current account, in milliseconds. Only set when loadAccount was requested. */
+  accountDurationMs?: number;
+  /** Whether a current account was found. Only set when loadAccount was requested. */
+  accountLoaded?: boolean;
+  /** Whether the MSAL application for this configuration already existed. */
+  cached: boolean;
+  msalVersion: string;
 }
 
 export interface LoginOptions extends BaseOptions {
   /** MSAL always sends the scopes 'openid profile offline_access'.  Do not include any of these scopes in the scopes parameter. */
   scopes?: string[];
   prompt?: 'login' | 'none' | 'consent' | 'create' | 'select_account';
+  /**
+   * Android only. Cached access tokens are only returned when they remain valid for at least this many seconds. Defaults to 300.
+   * While the device is offline any valid cached token is returned, otherwise the call rejects with code 'offline'. Either way the
+   * request is repeated once the device is back online, and a new token is pushed through the 'tokenRefreshed' event.
+   */
+  expiryMarginSeconds?: number;
+  /** Android only. Rejects with code 'timeout' when the silent flow takes longer than this. Defaults to 30000, 0 disables the timeout. */
+  silentTimeoutMs?: number;
+  /**
+   * Android only. Rejects with code 'timeout' when the whole request, including a prompt the user doesn't finish, takes longer than this.
+   * Disabled by default.
+   */
+  timeoutMs?: number;
+  /** Android only. Identifies the request, so it can be aborted with `cancel`. */
+  requestId?: string;
+  /** Android only. When set, the token is silently renewed this many seconds before it expires and pushed through the 'tokenRefreshed' event. */
+  refreshAheadSeconds?: number;
+  /**
+   * Android only. Persists the token encrypted with a key from the Android Keystore. After an app restart a persisted token that is
+   * still valid and belongs to the signed in account is returned right away and revalidated in the background; a renewed token is
+   * pushed through the 'tokenRefreshed' event.
+   */
+  staleWhileRevalidate?: boolean;
+  /**
+   * Android only. How often a silent request is retried after a transient failure (network errors, HTTP 429 and 5xx), with exponential
+   * backoff. Defaults to 2. When an authority keeps failing, requests fail fast with code 'unavailable' for a while.
+   */
+  maxRetries?: number;
+  /**
+   * Android only. When a prompt is likely, because there is no signed in account or its last silent request needed the user, the
+   * browser is started and the authority's login page pre-fetched through Custom Tabs, so it shows up sooner. Defaults to false.
+   */
+  warmUpBrowser?: boolean;
+  /** Android and web only. The id or username of the account to use. Only needed when several accounts are signed in. */
+  accountId?: string;
+  /** Android and web only. Claims to decode from the ID token (or the access token when missing there) and return in `claims`. */
+  claims?: string[];
+  /** Only return these fields, e.g. `['accessToken', 'expiresOn']`. Defaults to all of them. */
+  fields?: LoginResultField[];
+  /** The `tokenHash` of the access token the caller already holds. While that token is current, only `unchanged` and `expiresOn` are returned. */
+  knownTokenHash?: string;
+}
+
+export type LoginResultField = 'accessToken' | 'idToken' | 'scopes' | 'expiresOn' | 'tokenHash' | 'account';
+
+export interface GetClaimsOptions extends LoginOptions {
+  claims: string[];
+  /** Also return the access and ID tokens. Defaults to false. */
+  includeTokens?: boolean;
+}
+
+export interface GetClaimsResult {
+  claims: Record<string, unknown>;
+  expiresOn?: number;
+  accessToken?: string;
+  idToken?: string;
+  scopes?: string[];
+}
+
+export interface LoginResult {
+  accessToken: string;
+  idToken: string;
+  scopes: string[];
+  /** Expiry of the access token, in milliseconds since the epoch. */
+  expiresOn?: number;
+  /** The requested claims, when `claims` was passed. */
+  claims?: Record<string, unknown>;
+  /** SHA-256 of the access token, hex encoded. Pass it as `knownTokenHash` to get a short reply while the token doesn't change. */
+  tokenHash?: string;
+  /** Never set on a full result, see UnchangedLoginResult. */
+  unchanged?: false;
+  /** The account the tokens were issued to. */
+  account?: AccountInfo;
+}
+
+/** Returned by `login` instead of the tokens while the access token matches `knownTokenHash`. */
+export interface UnchangedLoginResult {
+  unchanged: true;
+  /** Expiry of the access token, in milliseconds since the epoch. */
+  expiresOn?: number;
+  /** The requested claims, when `claims` was passed. */
+  claims?: Record<string, unknown>;
+}
+
+export interface AcquireTokensOptions extends BaseOptions {
+  /** Named scope sets, e.g. `{ graph: ['User.Read'], api: ['api://my-api/access'] }`. Results are keyed by the same names. */
+  scopeSets: Record<string, string[]>;
+  prompt?: 'login' | 'none' | 'consent' | 'create' | 'select_account';
+  /** Android only. See LoginOptions. */
+  expiryMarginSeconds?: number;
+  /** Android only. See LoginOptions. */
+  silentTimeoutMs?: number;
+  /** Android only. See LoginOptions. */
+  maxRetries?: number;
+  /** Android only. Rejects with code 'timeout' when the whole batch, including a prompt the user doesn't finish, takes longer than this. */
+  timeoutMs?: number;
+  /** Android only. Identifies the batch, so it can be aborted with `cancel`. */
+  requestId?: string;
+  /** See LoginOptions. */
+  accountId?: string;
+}
+
+export interface AcquireTokensResult {
+  results: Record<string, LoginResult>;
+  errors: Record<string, { message: string; code?: string }>;
+}
+
+export interface GetMetricsOptions {
+  /** Reset the recorded metrics after returning them. */
+  reset?: boolean;
+  /** Emit the metrics through the 'metrics' event at this interval. 0 stops the stream. */
+  streamIntervalMs?: number;
+}
+
+export interface PhaseMetrics {
+  count: number;
+  errors: number;
+  meanMs: number;
+  p50Ms: number;
+  p95Ms: number;
+  p99Ms: number;
+  maxMs: number;
 }
 
-export type LogoutOptions = BaseOptions;
+export interface Metrics {
+  phases: Record<
+    'configBuild' | 'configWrite' | 'contextCreate' | 'currentAccount' | 'silent' | 'interactive' | 'signOut',
+    PhaseMetrics
+  >;
+  contextCache: { hits: number; misses: number };
+  /** Hits include `supersetHits`: tokens reused for a request with fewer scopes than they were granted for. */
+  tokenCache: { hits: number; misses: number; supersetHits: number };
+  /** Lookups of the current account served from memory instead of MSAL's storage. */
+  currentAccountCache: { hits: number; misses: number };
+  /** Silent requests retried after a transient failure, requests rejected because the authority was failing, and requests answered offline. */
+  counters: { retries: number; circuitOpen: number; offline: number };
+  coalescedRequests: number;
+}
+
+export type LogLevel = 'debug' | 'info' | 'warn' | 'error' | 'none';
+
+export interface GetDiagnosticsOptions {
+  /** Only write messages at this level and up to logcat. Defaults to 'warn'. Debug messages are only kept at the 'debug' level. */
+  logLevel?: LogLevel;
+  /** Clear the buffered entries after returning them. */
+  clear?: boolean;
+}
+
+export interface DiagnosticEntry {
+  /** When the message was logged, in milliseconds since the epoch. */
+  timestamp: number;
+  level: Exclude<LogLevel, 'none'>;
+  /** 'plugin' or 'msal'. */
+  source: string;
+  message: string;
+  /** The type and message of the exception that was logged, if any. */
+  error?: string;
+  /** How often the message was logged in a row, when more than once. */
+  count?: number;
+  /** When a repeated message was last logged. */
+  lastTimestamp?: number;
+}
+
+export interface Diagnostics {
+  logLevel: LogLevel;
+  /** The most recent log messages, oldest first. */
+  entries: DiagnosticEntry[];
+  /** Entries pushed out of the buffer by newer ones. */
+  droppedEntries: number;
+  pendingRequests: number;
+  inFlightRequests: number;
+  offline: boolean;
+}
+
+export interface CancelOptions {
+  /** Cancels the requests started with this `requestId`. */
+  requestId?: string;
+  /** Cancels the requests for these scopes, when no `requestId` is given. */
+  scopes?: string[];
+}
+
+export interface CancelResult {
+  /** The number of requests that were rejected with code 'cancelled'. */
+  cancelled: number;
+}
+
+export interface LogoutOptions extends BaseOptions {
+  /** Android and web only. The id or username of the account to sign out. Only needed when several accounts are signed in. */
+  accountId?: string;
+}
+
+export interface GetAccountsResult {
+  accounts: AccountInfo[];
+}
+
+export interface TokenRefreshedEvent {
+  accessToken: string;
+  scopes: string[];
+  expiresOn: number;
+  account?: AccountInfo;
+}
+
+export interface TokenExpiringEvent {
+  scopes: string[];
+  expiresOn: number;
+  account?: AccountInfo;
+}
+
+export interface AccountChangedEvent {
+  /** The account that is signed in now, absent when it was signed out. */
+  account?: AccountInfo;
+  priorAccount?: AccountInfo;
+}
+
+export interface SignedOutEvent {
+  account: AccountInfo;
+}
 
 export interface MsAuthPlugin {
-  login(options: LoginOptions): Promise<{ accessToken: string; idToken: string; scopes: string[] }>;
+  /** Android and web only. Creates the MSAL application ahead of time, so the first login doesn't pay for it. */
+  initialize(options: InitializeOptions): Promise<InitializeResult>;
+  login(options: LoginOptions & { fields?: undefined; knownTokenHash?: undefined }): Promise<LoginResult>;
+  /** With `fields` only part of the result is returned. With `knownTokenHash` the result may be an UnchangedLoginResult, check `unchanged` first. */
+  login(options: LoginOptions): Promise<Partial<LoginResult> | UnchangedLoginResult>;
+  /** Android and web only. Like login, but only returns the requested claims of the tokens instead of the tokens themselves. */
+  getClaims(options: GetClaimsOptions): Promise<GetClaimsResult>;
+  /** Android and web only. Acquires tokens for several scope sets at once. Scope sets that need user interaction share a single prompt. */
+  acquireTokens(options: AcquireTokensOptions): Promise<AcquireTokensResult>;
+  /** Android only. Aborts pending `login`, `getClaims` and `acquireTokens` requests, which reject with code 'cancelled'. */
+  cancel(options: CancelOptions): Promise<CancelResult>;
+  /** Android only. Returns latency metrics per authentication phase. */
+  getMetrics(options?: GetMetricsOptions): Promise<Metrics>;
+  /** Android only. Returns the recently buffered log messages of the plugin and MSAL, and sets the logcat level. */
+  getDiagnostics(options?: GetDiagnosticsOptions): Promise<Diagnostics>;
+  /** Android and web only. Lists the signed in accounts. */
+  getAccounts(options: BaseOptions): Promise<GetAccountsResult>;
   logout(options: LogoutOptions): Promise<void>;
+  /** Signs out every account. */
   logoutAll(options: LogoutOptions): Promise<void>;
+  addListener(eventName: 'tokenRefreshed', listenerFunc: (event: TokenRefreshedEvent) => void): Promise<PluginListenerHandle>;
+  /** Android only. A token handed out by `login` is within `expiryMarginSeconds` of expiring and wasn't renewed. */
+  addListener(eventName: 'tokenExpiring', listenerFunc: (event: TokenExpiringEvent) => void): Promise<PluginListenerHandle>;
+  /** Android only. The current account of a single account application changed. */
+  addListener(eventName: 'accountChanged', listenerFunc: (event: AccountChangedEvent) => void): Promise<PluginListenerHandle>;
+  /** Android only. */
+  addListener(eventName: 'signedOut', listenerFunc: (event: SignedOutEvent) => void): Promise<PluginListenerHandle>;
+  addListener(eventName: 'metrics', listenerFunc: (event: Metrics) => void): Promise<PluginListenerHandle>;
+  removeAllListeners(): Promise<void>;
 }
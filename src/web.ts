@@ -1,7 +1,24 @@
-import { PublicClientApplication } from '@azure/msal-browser';
+import { PublicClientApplication, version } from '@azure/msal-browser';
+import type { AccountInfo } from '@azure/msal-browser';
 import { WebPlugin } from '@capacitor/core';
 
-import type { BaseOptions, MsAuthPlugin } from './definitions';
+import type {
+  AcquireTokensOptions,
+  AcquireTokensResult,
+  BaseOptions,
+  CancelResult,
+  Diagnostics,
+  GetAccountsResult,
+  GetClaimsOptions,
+  GetClaimsResult,
+  InitializeOptions,
+  InitializeResult,
+  LoginResult,
+  LoginResultField,
+  UnchangedLoginResult,
+  Metrics,
+  MsAuthPlugin,
+} from './definitions';
 
 interface WebBaseOptions extends BaseOptions {
   redirectUri?: string;
@@ -9,24 +26,50 @@ interface WebBaseOptions extends BaseOptions {
 
 interface WebLoginOptions extends WebBaseOptions {
   scopes: string[];
+  accountId?: string;
+  claims?: string[];
+  fields?: LoginResultField[];
+  knownTokenHash?: string;
 }
 
-type WebLogoutOptions = WebBaseOptions;
-
-interface AuthResult {
-  accessToken: string;
-  idToken: string;
-  scopes: string[];
+interface WebLogoutOptions extends WebBaseOptions {
+  accountId?: string;
 }
 
 export class MsAuth extends WebPlugin implements MsAuthPlugin {
-  async login(options: WebLoginOptions): Promise<AuthResult> {
+  // Keyed by the serialized configuration, so every call with the same options shares one application and its cache
+  private readonly contexts = new Map<string, PublicClientApplication>();
+
+  async initialize(options: InitializeOptions & WebBaseOptions): Promise<InitializeResult> {
+    const startTime = Date.now();
+    const cached = this.contexts.has(this.getContextKey(options));
+    const context = this.createContext(options);
+    const contextDurationMs = Date.now() - startTime;
+    const accountLoaded = options.loadAccount ? context.getAllAccounts().length > 0 : undefined;
+
+    return {
+      durationMs: Date.now() - startTime,
+      contextDurationMs,
+      accountDurationMs: options.loadAccount ? Date.now() - startTime - contextDurationMs : undefined,
+      accountLoaded,
+      cached,
+      msalVersion: version,
+    };
+  }
+
+  login(options: WebLoginOptions & { fields?: undefined; knownTokenHash?: undefined }): Promise<LoginResult>;
+  login(options: WebLoginOptions): Promise<Partial<LoginResult> | UnchangedLoginResult>;
+  async login(options: WebLoginOptions): Promise<Partial<LoginResult> | UnchangedLoginResult> {
     const context = this.createContext(options);
 
     try {
-      return await this.acquireTokenSilently(context, options.scopes).catch(() =>
+      const result = await this.acquireTokenSilently(context, options.scopes, options.accountId).catch(() =>
         this.acquireTokenInteractively(context, options.scopes),
       );
+
+      const trimmed = await this.trimResult(result, options.fields, options.knownTokenHash);
+
+      return options.claims ? { ...trimmed, claims: this.pickClaims(result, options.claims) } : trimmed;
     } catch (error) {
       console.error('MSAL: Error occurred while logging in', error);
 
@@ -34,13 +77,92 @@ export class MsAuth extends WebPlugin implements MsAuthPlugin {
     }
   }
 
+  async acquireTokens(options: AcquireTokensOptions & WebBaseOptions): Promise<AcquireTokensResult> {
+    const context = this.createContext(options);
+    const result: AcquireTokensResult = { results: {}, errors: {} };
+    const interactionRequired: string[] = [];
+
+    await Promise.all(
+      Object.entries(options.scopeSets).map(async ([name, scopes]) => {
+        try {
+          result.results[name] = await this.acquireTokenSilently(context, scopes, options.accountId);
+        } catch {
+          interactionRequired.push(name);
+        }
+      }),
+    );
+
+    if (interactionRequired.length > 0) {
+      const [promptedName, ...remainingNames] = interactionRequired;
+
+      try {
+        const { accessToken, idToken, expiresOn, account } = await context.acquireTokenPopup({
+          scopes: options.scopeSets[promptedName],
+          extraScopesToConsent: ([] as string[]).concat(...remainingNames.map((name) => options.scopeSets[name])),
+          prompt: options.prompt ?? 'select_account',
+        });
+        result.results[promptedName] = {
+          accessToken,
+          idToken,
+          scopes: options.scopeSets[promptedName],
+          expiresOn: expiresOn?.getTime(),
+          account: this.createAccountInfo(account),
+        };
+
+        for (const name of remainingNames) {
+          try {
+            result.results[name] = await this.acquireTokenSilently(context, options.scopeSets[name], options.accountId);
+          } catch (error) {
+            result.errors[name] = { message: String(error) };
+          }
+        }
+      } catch (error) {
+        for (const name of interactionRequired) {
+          result.errors[name] = { message: String(error) };
+        }
+      }
+    }
+
+    return result;
+  }
+
+  async cancel(): Promise<CancelResult> {
+    throw this.unimplemented('Not implemented on web.');
+  }
+
+  async getMetrics(): Promise<Metrics> {
+    throw this.unimplemented('Not implemented on web.');
+  }
+
+  async getDiagnostics(): Promise<Diagnostics> {
+    throw this.unimplemented('Not implemented on web.');
+  }
+
+  async getClaims(options: GetClaimsOptions & WebBaseOptions): Promise<GetClaimsResult> {
+    const { accessToken, idToken, scopes, expiresOn, claims = {} } = await this.login({
+      ...options,
+      scopes: options.scopes ?? [],
+      fields: undefined,
+      knownTokenHash: undefined,
+    });
+
+    return options.includeTokens ? { claims, expiresOn, accessToken, idToken, scopes } : { claims, expiresOn };
+  }
+
+  async getAccounts(options: WebBaseOptions): Promise<GetAccountsResult> {
+    const context = this.createContext(options);
+
+    return { accounts: context.getAllAccounts().map((account) => this.createAccountInfo(account)) };
+  }
+
   logout(options: WebLogoutOptions): Promise<void> {
     const context = this.createContext(options);
+    const account = this.findAccount(context, options.accountId);
 
-    if (!context.getAllAccounts()[0]) {
+    if (!account) {
       return Promise.reject(new Error('Nothing to sign out from.'));
     } else {
-      return context.logoutPopup();
+      return context.logoutPopup({ account });
     }
   }
 
@@ -48,8 +170,24 @@ export class MsAuth extends WebPlugin implements MsAuthPlugin {
     return this.logout(options);
   }
 
-  private createContext(options: WebBaseOptions) {
-    const config = {
+  private createContext(options: WebBaseOptions): PublicClientApplication {
+    const config = this.createConfig(options);
+    const key = JSON.stringify(config);
+    let context = this.contexts.get(key);
+    if (!context) {
+      context = new PublicClientApplication(config);
+      this.contexts.set(key, context);
+    }
+
+    return context;
+  }
+
+  private getContextKey(options: WebBaseOptions): string {
+    return JSON.stringify(this.createConfig(options));
+  }
+
+  private createConfig(options: WebBaseOptions) {
+    return {
       auth: {
         clientId: options.clientId,
         domainHint: options.domainHint,
@@ -61,29 +199,113 @@ export class MsAuth extends WebPlugin implements MsAuthPlugin {
         cacheLocation: 'localStorage',
       },
     };
+  }
+
+  private async trimResult(
+    result: LoginResult,
+    fields?: LoginResultField[],
+    knownTokenHash?: string,
+  ): Promise<Partial<LoginResult> | UnchangedLoginResult> {
+    const tokenHash = await this.hashToken(result.accessToken);
+    if (knownTokenHash !== undefined && knownTokenHash === tokenHash) {
+      return { unchanged: true, expiresOn: result.expiresOn };
+    }
+
+    const full: LoginResult = { ...result, tokenHash };
+    if (!fields) {
+      return full;
+    }
+
+    const trimmed: Partial<LoginResult> = {};
+    for (const field of fields) {
+      if (full[field] !== undefined) {
+        (trimmed as Record<string, unknown>)[field] = full[field];
+      }
+    }
+
+    return trimmed;
+  }
+
+  private async hashToken(token: string): Promise<string> {
+    const digest = await crypto.subtle.digest('SHA-256', new TextEncoder().encode(token));
+
+    return Array.from(new Uint8Array(digest))
+      .map((byte) => byte.toString(16).padStart(2, '0'))
+      .join('');
+  }
+
+  private pickClaims(result: LoginResult, names: string[]): Record<string, unknown> {
+    const idTokenClaims = this.decodeClaims(result.idToken);
+    const claims: Record<string, unknown> = {};
+    let accessTokenClaims: Record<string, unknown> | undefined;
+
+    for (const name of names) {
+      if (idTokenClaims[name] !== undefined) {
+        claims[name] = idTokenClaims[name];
+        continue;
+      }
+
+      accessTokenClaims = accessTokenClaims ?? this.decodeClaims(result.accessToken);
+      if (accessTokenClaims[name] !== undefined) {
+        claims[name] = accessTokenClaims[name];
+      }
+    }
+
+    return claims;
+  }
+
+  private decodeClaims(token: string): Record<string, unknown> {
+    try {
+      const payload = atob(token.split('.')[1].replace(/-/g, '+').replace(/_/g, '/'));
+      const bytes = Uint8Array.from(payload, (character) => character.charCodeAt(0));
+
+      return JSON.parse(new TextDecoder().decode(bytes));
+    } catch {
+      return {};
+    }
+  }
+
+  private findAccount(context: PublicClientApplication, accountId?: string): AccountInfo | undefined {
+    const accounts = context.getAllAccounts();
+    if (accountId === undefined) {
+      return accounts[0];
+    }
+
+    return accounts.find(
+      (account) =>
+        account.homeAccountId === accountId ||
+        account.localAccountId === accountId ||
+        account.username.toLowerCase() === accountId.toLowerCase(),
+    );
+  }
 
-    return new PublicClientApplication(config);
+  private createAccountInfo(account: AccountInfo | null): { id: string; username?: string } | undefined {
+    return account ? { id: account.homeAccountId, username: account.username } : undefined;
   }
 
   private getCurrentUrl(): string {
     return window.location.href.split(/[?#]/)[0];
   }
 
-  private async acquireTokenInteractively(context: PublicClientApplication, scopes: string[]): Promise<AuthResult> {
-    const { accessToken, idToken } = await context.acquireTokenPopup({
+  private async acquireTokenInteractively(context: PublicClientApplication, scopes: string[]): Promise<LoginResult> {
+    const { accessToken, idToken, expiresOn, account } = await context.acquireTokenPopup({
       scopes,
       prompt: 'select_account',
     });
 
-    return { accessToken, idToken, scopes };
+    return { accessToken, idToken, scopes, expiresOn: expiresOn?.getTime(), account: this.createAccountInfo(account) };
   }
 
-  private async acquireTokenSilently(context: PublicClientApplication, scopes: string[]): Promise<AuthResult> {
-    const { accessToken, idToken } = await context.acquireTokenSilent({
+  private async acquireTokenSilently(
+    context: PublicClientApplication,
+    scopes: string[],
+    accountId?: string,
+  ): Promise<LoginResult> {
+    const { accessToken, idToken, expiresOn, account } = await context.acquireTokenSilent({
       scopes,
-      account: context.getAllAccounts()[0],
+      account: this.findAccount(context, accountId),
     });
 
-    return { accessToken, idToken, scopes };
+    return { accessToken, idToken, scopes, expiresOn: expiresOn?.getTime(), account: this.createAccountInfo(account) };
   }
 }